@@ -0,0 +1,213 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** A connection to a repository served by a Server, named by a URL:
+ *  gitlet://HOST[:PORT]/PATH for one served over TCP, or
+ *  gitlet+unix://SOCKET:PATH for one served on the Unix domain socket
+ *  SOCKET.  PATH is the path of the repository below the directory that
+ *  the server serves.  A connection carries one fetch or push, as
+ *  described in Protocol.  Failures throw GitletException.
+ *  @author Stephen Ip
+ */
+class Client implements AutoCloseable {
+
+    /** Start of the URL of a repository served over TCP. */
+    private static final String TCP = "gitlet://";
+
+    /** Start of the URL of a repository served on a Unix domain
+     *  socket. */
+    private static final String UNIX = "gitlet+unix://";
+
+    /** Return true iff LOCATION, the location of a remote, is the URL of
+     *  a served repository rather than a directory. */
+    static boolean isUrl(String location) {
+        return location.startsWith(TCP) || location.startsWith(UNIX);
+    }
+
+    /** Connect to the repository at URL, whose object ids must be
+     *  IDLENGTH bytes long, and read its branches. */
+    Client(String url, int idLength) {
+        String path;
+        SocketChannel channel;
+        try {
+            if (url.startsWith(UNIX)) {
+                String rest = url.substring(UNIX.length());
+                int colon = rest.indexOf(':');
+                path = colon < 0 ? "" : rest.substring(colon + 1);
+                channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+                channel.connect(UnixDomainSocketAddress.of(Paths.get(
+                        colon < 0 ? rest : rest.substring(0, colon))));
+            } else {
+                String rest = url.substring(TCP.length());
+                int slash = rest.indexOf('/');
+                String host = slash < 0 ? rest : rest.substring(0, slash);
+                path = slash < 0 ? "" : rest.substring(slash + 1);
+                int colon = host.lastIndexOf(':');
+                int port = colon < 0 ? Protocol.DEFAULT_PORT
+                    : Integer.parseInt(host.substring(colon + 1));
+                channel = SocketChannel.open(new InetSocketAddress(
+                        colon < 0 ? host : host.substring(0, colon), port));
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            throw Utils.error("Cannot reach remote %s: %s", url,
+                              excp.getMessage());
+        }
+        _channel = channel;
+        _in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel)));
+        _out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel)));
+        try {
+            _out.writeInt(Protocol.MAGIC);
+            _out.writeInt(Protocol.VERSION);
+            Protocol.writeFrame(_out, new Codec.Encoder().writeString(path)
+                                .writeVarint(idLength));
+            _out.flush();
+            Codec.Decoder refs = readStatus();
+            for (int count = refs.readInt(); count > 0; count -= 1) {
+                String name = refs.readString();
+                _branches.put(name, refs.readId(idLength));
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            close();
+            throw Utils.error("Remote connection failed: %s",
+                              excp.getMessage());
+        } catch (GitletException excp) {
+            close();
+            throw excp;
+        }
+    }
+
+    /** Return the branches of the remote repository, mapped to the ids of
+     *  the commits they point at. */
+    Map<String, String> branches() {
+        return _branches;
+    }
+
+    /** Store in STORE the commit ID and whatever it needs that STORE
+     *  lacks, given that STORE holds the commits HAVES and everything
+     *  they need.  New commits are added to MESSAGES, if it is not
+     *  null. */
+    void fetch(String id, Collection<String> haves, ObjectStore store,
+               MessageIndex messages) {
+        try {
+            Codec.Encoder request = new Codec.Encoder()
+                .writeByte(Protocol.FETCH).writeId(id)
+                .writeVarint(haves.size());
+            for (String have : haves) {
+                request.writeId(have);
+            }
+            Protocol.writeFrame(_out, request);
+            _out.flush();
+            Map<String, Byte> received = Protocol.readObjects(_in, store);
+            if (!store.contains(ObjectStore.COMMIT, id)
+                || !Protocol.complete(store, received)) {
+                Protocol.discard(store, received);
+                throw Utils.error("Remote did not send the commits fetched.");
+            }
+            if (messages != null) {
+                received.forEach((commit, type) -> {
+                    if (type == ObjectStore.COMMIT) {
+                        messages.add(commit, Commit.load(store, commit)
+                                     .getLogMessage());
+                    }
+                });
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            throw Utils.error("Remote connection failed: %s",
+                              excp.getMessage());
+        }
+    }
+
+    /** Move the remote branch BRANCH from the commit OLDID (null if the
+     *  remote had no such branch when connected) to NEWID, sending it
+     *  OBJECTS from STORE, which include all that it lacks. */
+    void push(String branch, String oldId, String newId, ObjectStore store,
+              Reachability.ObjectSet objects) {
+        ArrayList<String> blobs = new ArrayList<>(),
+            trees = new ArrayList<>(), commits = new ArrayList<>();
+        objects.forEach((type, id) -> {
+            if (type == ObjectStore.BLOB) {
+                blobs.add(id);
+            } else {
+                (type == ObjectStore.TREE ? trees : commits).add(id);
+            }
+        });
+        try {
+            Codec.Encoder request = new Codec.Encoder()
+                .writeByte(Protocol.PUSH).writeString(branch)
+                .writeByte(oldId == null ? 0 : 1);
+            if (oldId != null) {
+                request.writeId(oldId);
+            }
+            Protocol.writeFrame(_out, request.writeId(newId));
+            HashSet<String> sent = new HashSet<>();
+            for (String id : blobs) {
+                Protocol.writeObject(_out, store, ObjectStore.BLOB, id,
+                                     sent);
+            }
+            for (String id : trees) {
+                Protocol.writeObject(_out, store, ObjectStore.TREE, id,
+                                     sent);
+            }
+            for (String id : commits) {
+                Protocol.writeObject(_out, store, ObjectStore.COMMIT, id,
+                                     sent);
+            }
+            Protocol.endObjects(_out);
+            _out.flush();
+            readStatus();
+        } catch (IOException | IllegalArgumentException excp) {
+            throw Utils.error("Remote connection failed: %s",
+                              excp.getMessage());
+        }
+    }
+
+    /** Read a status frame, throwing GitletException with the remote's
+     *  message if it reports an error, and return a decoder over the rest
+     *  of it. */
+    private Codec.Decoder readStatus() throws IOException {
+        Codec.Decoder status = Protocol.readFrame(_in);
+        if (status.readByte() != Protocol.OK) {
+            throw new GitletException(status.readString());
+        }
+        return status;
+    }
+
+    @Override
+    public void close() {
+        try {
+            _channel.close();
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** The connection. */
+    private final SocketChannel _channel;
+
+    /** The stream from the server. */
+    private final DataInputStream _in;
+
+    /** The stream to the server. */
+    private final DataOutputStream _out;
+
+    /** The remote branches, by name. */
+    private final TreeMap<String, String> _branches = new TreeMap<>();
+}
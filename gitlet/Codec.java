@@ -0,0 +1,181 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** The compact binary encoding of repository data such as commits and
+ *  the remotes file.  Encoded data is a sequence of fields of a few
+ *  kinds: single bytes, unsigned variable-length integers (seven bits
+ *  per byte, least significant group first, with the top bit of each
+ *  byte set if more follow), strings (a varint length followed by that
+ *  many bytes of UTF-8), and object ids (their raw bytes, with the
+ *  length of ids given once by the enclosing format).  Encoders and
+ *  decoders work directly on byte arrays, with no intervening streams.
+ *  @author Stephen Ip
+ */
+class Codec {
+
+    /** Return true iff BYTES were written by Java serialization, as
+     *  repository data was before this encoding was introduced. */
+    static boolean isSerialized(byte[] bytes) {
+        return bytes.length >= 2
+            && (bytes[0] & 0xff) == 0xac && (bytes[1] & 0xff) == 0xed;
+    }
+
+    /** Accumulates encoded fields in a growing byte array. */
+    static class Encoder {
+
+        /** An empty encoder. */
+        Encoder() {
+            _buf = new byte[INITIAL_SIZE];
+        }
+
+        /** Append the byte B. */
+        Encoder writeByte(int b) {
+            reserve(1);
+            _buf[_size++] = (byte) b;
+            return this;
+        }
+
+        /** Append the non-negative integer N as a varint. */
+        Encoder writeVarint(long n) {
+            if (n < 0) {
+                throw new IllegalArgumentException("negative varint");
+            }
+            reserve(MAX_VARINT);
+            while (n >= 0x80) {
+                _buf[_size++] = (byte) (n | 0x80);
+                n >>>= 7;
+            }
+            _buf[_size++] = (byte) n;
+            return this;
+        }
+
+        /** Append the string S. */
+        Encoder writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            reserve(bytes.length);
+            System.arraycopy(bytes, 0, _buf, _size, bytes.length);
+            _size += bytes.length;
+            return this;
+        }
+
+        /** Append the raw bytes of the object id ID, a hexadecimal
+         *  numeral. */
+        Encoder writeId(String id) {
+            reserve(id.length() / 2);
+            for (int i = 0; i < id.length(); i += 2) {
+                int hi = Character.digit(id.charAt(i), 16);
+                int lo = Character.digit(id.charAt(i + 1), 16);
+                if (hi < 0 || lo < 0) {
+                    throw new IllegalArgumentException("bad object id");
+                }
+                _buf[_size++] = (byte) ((hi << 4) | lo);
+            }
+            return this;
+        }
+
+        /** Return the bytes encoded so far. */
+        byte[] toByteArray() {
+            return Arrays.copyOf(_buf, _size);
+        }
+
+        /** Make room for N more bytes. */
+        private void reserve(int n) {
+            if (_size + n > _buf.length) {
+                _buf = Arrays.copyOf(_buf,
+                                     Math.max(2 * _buf.length, _size + n));
+            }
+        }
+
+        /** Initial capacity of the buffer. */
+        private static final int INITIAL_SIZE = 256;
+
+        /** Largest number of bytes in a varint. */
+        private static final int MAX_VARINT = 10;
+
+        /** The buffer, of which the first _size bytes are in use. */
+        private byte[] _buf;
+        /** Number of bytes encoded so far. */
+        private int _size;
+    }
+
+    /** Reads the fields encoded in a byte array, in order.  Reading past
+     *  the end, or a malformed field, throws IllegalArgumentException. */
+    static class Decoder {
+
+        /** A decoder over BYTES. */
+        Decoder(byte[] bytes) {
+            _buf = bytes;
+        }
+
+        /** Return the next byte, as an unsigned value. */
+        int readByte() {
+            need(1);
+            return _buf[_pos++] & 0xff;
+        }
+
+        /** Return the next varint. */
+        long readVarint() {
+            long result = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7f) << shift;
+                if (b < 0x80) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("corrupt varint");
+        }
+
+        /** Return the next varint, which must fit in an int. */
+        int readInt() {
+            long n = readVarint();
+            if (n > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("corrupt length");
+            }
+            return (int) n;
+        }
+
+        /** Return the next string. */
+        String readString() {
+            int length = readInt();
+            need(length);
+            String result =
+                new String(_buf, _pos, length, StandardCharsets.UTF_8);
+            _pos += length;
+            return result;
+        }
+
+        /** Return the next object id, whose raw form is LENGTH bytes, as
+         *  a hexadecimal numeral. */
+        String readId(int length) {
+            need(length);
+            char[] digits = new char[2 * length];
+            for (int i = 0; i < length; i += 1) {
+                int b = _buf[_pos++];
+                digits[2 * i] = Character.forDigit((b >> 4) & 0xf, 16);
+                digits[2 * i + 1] = Character.forDigit(b & 0xf, 16);
+            }
+            return new String(digits);
+        }
+
+        /** Return true iff all fields have been read. */
+        boolean atEnd() {
+            return _pos == _buf.length;
+        }
+
+        /** Throw IllegalArgumentException unless N more bytes remain. */
+        private void need(int n) {
+            if (n < 0 || _buf.length - _pos < n) {
+                throw new IllegalArgumentException("truncated data");
+            }
+        }
+
+        /** The encoded bytes. */
+        private final byte[] _buf;
+        /** Position of the next field. */
+        private int _pos;
+    }
+}
@@ -1,12 +1,38 @@
 package gitlet;
 
-import java.io.File;
-import java.io.Serializable;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class Commit implements Serializable {
+/** A commit: a snapshot of the tracked files, with its log message, time
+ *  and parents.  The snapshot is a Tree, so a commit records just the id
+ *  of its root tree, and a commit that changes one file shares every
+ *  other directory's tree with its parent.  A commit is stored in the
+ *  binary form written by encode: a format version byte, the length in
+ *  bytes of the ids it contains, a flags byte saying which parents are
+ *  present, the parents' ids, the root tree id, the time in milliseconds
+ *  since the epoch as a varint, and the log message.  This form is
+ *  canonical, and a commit's hash is the hash of it.  Commits in version
+ *  1 of the format, which list every tracked file, can still be read;
+ *  those of the first version of gitlet, which used Java serialization,
+ *  are stored anew when their repository is upgraded (see Legacy).
+ *  @author Stephen Ip
+ */
+public class Commit {
+
+    /** Version of the stored form of commits. */
+    private static final int VERSION = 2;
+
+    /** Version of the stored form of commits that list their files. */
+    private static final int FLAT_VERSION = 1;
+
+    /** Flag bit of a commit with a (first) parent. */
+    private static final int HAS_PARENT = 1;
+
+    /** Flag bit of a commit with a branch parent. */
+    private static final int HAS_BRANCH_PARENT = 2;
 
     public Commit(String logMessage,
                   HashMap<String, String> filesTracking,
@@ -14,33 +40,51 @@ public class Commit implements Serializable {
                   Commit parent, Commit branchParent) {
         _logMessage = logMessage;
         _timestamp = new Date();
-        if (parent != null && parent._filesTracking != null) {
-            _filesTracking = parent.getFilesTracked();
-            _filesTracking.putAll(filesTracking);
-        } else {
-            _filesTracking = filesTracking;
+        TreeMap<String, String> changes = new TreeMap<>();
+        if (filesTracking != null) {
+            changes.putAll(filesTracking);
         }
         if (filesRemoveTracking != null) {
-            for (Map.Entry<String, String> entry
-                    : filesRemoveTracking.entrySet()) {
-                String key = entry.getKey();
-                _filesTracking.remove(key);
+            for (String fileName : filesRemoveTracking.keySet()) {
+                changes.put(fileName, null);
             }
         }
-        _parent = parent;
-        _branchParent = branchParent;
-        _hash = Utils.sha1(Utils.serialize(this));
-        File commitFile = Utils.join(Main.COMMIT_FOLDER, _hash);
-        Utils.writeObject(commitFile, this);
+        _treeId = Tree.update(Main.getObjects(),
+                parent == null ? null : parent.getTreeId(), changes);
+        _parentHash = parent == null ? null : parent.getHash();
+        _branchParentHash = branchParent == null
+                ? null : branchParent.getHash();
+        byte[] contents = encode();
+        _hash = Main.getObjects().hash(contents);
+        Main.getObjects().write(ObjectStore.COMMIT, _hash, contents);
+        Main.indexMessage(_hash, _logMessage);
         Pointers pointers = Main.getPointers();
         if (pointers.getHead() == null) {
-            pointers.setPointer("master", this);
+            pointers.setPointer("master", _hash);
             pointers.setHead("master");
         } else {
-            pointers.setPointer(pointers.getHead(), this);
+            pointers.setPointer(pointers.getHead(), _hash);
         }
     }
 
+    /** The commit named HASH, with the given LOGMESSAGE, TIMESTAMP,
+     *  PARENTHASH and BRANCHPARENTHASH, as read from STORE.  Its files
+     *  are those of the tree TREEID, or FILESTRACKING if TREEID is
+     *  null. */
+    private Commit(String hash, String logMessage, Date timestamp,
+                   String treeId, HashMap<String, String> filesTracking,
+                   String parentHash, String branchParentHash,
+                   ObjectStore store) {
+        _hash = hash;
+        _logMessage = logMessage;
+        _timestamp = timestamp;
+        _treeId = treeId;
+        _filesTracking = filesTracking;
+        _parentHash = parentHash;
+        _branchParentHash = branchParentHash;
+        _store = store;
+    }
+
     public String getHash() {
         return _hash;
     }
@@ -53,19 +97,149 @@ public class Commit implements Serializable {
         return _timestamp;
     }
 
+    /** Return the (first) parent of this commit, loading it from the
+     *  store this commit was read from, or null if there is none. */
     public Commit getParent() {
-        return _parent;
+        return _parentHash == null ? null : load(getStore(), _parentHash);
+    }
+
+    public String getParentHash() {
+        return _parentHash;
     }
 
+    /** Return a mapping of the paths of my files to their blobs, reading
+     *  it from my tree on first use.  The result is shared and must not
+     *  be modified. */
     public HashMap<String, String> getFilesTracked() {
+        if (_filesTracking == null) {
+            _filesTracking = Tree.files(getStore(), _treeId);
+        }
         return _filesTracking;
     }
 
+    /** Return the id of my root tree.  For a commit written before trees,
+     *  the tree is built from its files and written to its store. */
+    public String getTreeId() {
+        if (_treeId == null) {
+            _treeId = Tree.update(getStore(), null, _filesTracking == null
+                    ? new HashMap<>() : _filesTracking);
+        }
+        return _treeId;
+    }
+
+    /** Return the branch parent of this commit, loading it from the
+     *  store this commit was read from, or null if there is none. */
     public Commit getBranchparent() {
-        return _branchParent;
+        return _branchParentHash == null
+                ? null : load(getStore(), _branchParentHash);
+    }
+
+    public String getBranchParentHash() {
+        return _branchParentHash;
+    }
+
+    /** Return the commit named HASH in the local repository. */
+    public static Commit load(String hash) {
+        return load(Main.getObjects(), hash);
+    }
+
+    /** Return the commit named HASH in the object store STORE.  Commits
+     *  are immutable, so each one is read at most once per store. */
+    public static Commit load(ObjectStore store, String hash) {
+        Map<String, Commit> loaded =
+            LOADED.computeIfAbsent(store, s -> new ConcurrentHashMap<>());
+        Commit commit = loaded.get(hash);
+        if (commit == null) {
+            commit = decode(hash, store.read(ObjectStore.COMMIT, hash),
+                            store);
+            loaded.put(hash, commit);
+        }
+        return commit;
+    }
+
+    /** Write to STORE a commit with the given LOGMESSAGE and TIMESTAMP,
+     *  whose files are those of the tree TREEID and whose parents are
+     *  PARENTHASH and BRANCHPARENTHASH, and return its hash.  Unlike the
+     *  public constructor, this moves no branch. */
+    static String write(ObjectStore store, String logMessage,
+                        Date timestamp, String treeId, String parentHash,
+                        String branchParentHash) {
+        byte[] contents = new Commit(null, logMessage, timestamp, treeId,
+                null, parentHash, branchParentHash, store).encode();
+        String hash = store.hash(contents);
+        store.write(ObjectStore.COMMIT, hash, contents);
+        return hash;
+    }
+
+    /** Forget the commits read from STORE, so that a long-running
+     *  server does not keep every commit it has sent. */
+    static void forget(ObjectStore store) {
+        LOADED.remove(store);
+    }
+
+    /** Return my stored form. */
+    private byte[] encode() {
+        Codec.Encoder out = new Codec.Encoder();
+        out.writeByte(VERSION).writeByte(_treeId.length() / 2)
+            .writeByte((_parentHash == null ? 0 : HAS_PARENT)
+                       | (_branchParentHash == null ? 0 : HAS_BRANCH_PARENT));
+        if (_parentHash != null) {
+            out.writeId(_parentHash);
+        }
+        if (_branchParentHash != null) {
+            out.writeId(_branchParentHash);
+        }
+        out.writeId(_treeId).writeVarint(_timestamp.getTime())
+            .writeString(_logMessage);
+        return out.toByteArray();
+    }
+
+    /** Return the commit named HASH whose stored form, read from STORE,
+     *  is CONTENTS. */
+    private static Commit decode(String hash, byte[] contents,
+                                 ObjectStore store) {
+        Codec.Decoder in = new Codec.Decoder(contents);
+        int version = in.readByte();
+        if (version != VERSION && version != FLAT_VERSION) {
+            throw new IllegalArgumentException("unknown commit format "
+                    + hash);
+        }
+        int idLength = in.readByte();
+        int flags = in.readByte();
+        String parentHash =
+            (flags & HAS_PARENT) == 0 ? null : in.readId(idLength);
+        String branchParentHash =
+            (flags & HAS_BRANCH_PARENT) == 0 ? null : in.readId(idLength);
+        String treeId = version == VERSION ? in.readId(idLength) : null;
+        Date timestamp = new Date(in.readVarint());
+        String logMessage = in.readString();
+        HashMap<String, String> filesTracking = null;
+        if (version == FLAT_VERSION) {
+            filesTracking = new HashMap<>();
+            for (int count = in.readInt(); count > 0; count -= 1) {
+                String fileName = in.readString();
+                filesTracking.put(fileName, in.readId(idLength));
+            }
+        }
+        if (!in.atEnd()) {
+            throw new IllegalArgumentException("corrupt commit " + hash);
+        }
+        return new Commit(hash, logMessage, timestamp, treeId,
+                          filesTracking, parentHash, branchParentHash,
+                          store);
     }
 
-    /** The commit object's hash (filename). */
+    /** Return the store this commit was read from. */
+    private ObjectStore getStore() {
+        return _store == null ? Main.getObjects() : _store;
+    }
+
+    /** Commits already read, by store and hash. */
+    private static final Map<ObjectStore, Map<String, Commit>> LOADED =
+        new ConcurrentHashMap<>();
+
+    /** The commit object's hash (filename).  Not part of the stored
+     *  form. */
     private final String _hash;
 
     /** The commit log message. */
@@ -74,14 +248,22 @@ public class Commit implements Serializable {
     /** The time the commit was made. */
     private final Date _timestamp;
 
-    /** The files that are being tracked in this commit. */
-    private final HashMap<String, String> _filesTracking;
+    /** The id of the root tree of this commit's files, or null if not
+     *  yet built for a commit written before trees. */
+    private String _treeId;
+
+    /** The files that are being tracked in this commit, by path, or null
+     *  if not yet read from the tree. */
+    private HashMap<String, String> _filesTracking;
+
+    /** The hash of the (first) parent of this commit. */
+    private final String _parentHash;
 
-    /** The (first) parent commit object of this commit. */
-    private final Commit _parent;
+    /** The hash of the branch parent of this commit. */
+    private final String _branchParentHash;
 
-    /** The branch parent commit object of this commit. */
-    private final Commit _branchParent;
+    /** The object store this commit was read from, if any. */
+    private ObjectStore _store;
 }
 
 
@@ -0,0 +1,556 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/** The ancestry of the commits of a repository, in a form that can be
+ *  traversed without reading commits.  Each commit has a position, a
+ *  small integer; the graph records, by position, each commit's parents
+ *  (as positions, or -1 where absent), its generation (1 for a commit
+ *  with no parents, otherwise one more than the largest generation of
+ *  its parents) and its date.  A commit's ancestors all have smaller
+ *  generations, so a walk looking for a commit can stop at generations
+ *  below that commit's.
+ *
+ *  The graph of the commits present at the last repack is kept in the
+ *  file .gitlet/commit-graph, which is memory-mapped.  After a header
+ *  (MAGIC, a format version, the length in bytes of ids and the number
+ *  of commits) come a 256-entry fan-out table as in a pack index, the
+ *  raw ids of the commits in ascending order, which gives their
+ *  positions, and for each position its first parent, second parent
+ *  and generation as ints and its date as a long.  Commits made since
+ *  are read when first reached and given the following positions; if
+ *  there are many of them, the file is rewritten when the command
+ *  ends.
+ *  @author Stephen Ip
+ */
+class CommitGraph {
+
+    /** Magic number at the start of a commit-graph file. */
+    private static final int MAGIC = 0x47434752;
+
+    /** Version of the commit-graph format. */
+    private static final int VERSION = 1;
+
+    /** Size of the header, in bytes. */
+    private static final int HEADER = 16;
+
+    /** Size of the fan-out table, in bytes. */
+    private static final int FANOUT = 256 * 4;
+
+    /** Size of the data recorded for one commit, in bytes. */
+    private static final int ENTRY = 20;
+
+    /** Mark, during a walk of two histories, of a commit reachable from
+     *  the first (the head, in mergeBase). */
+    private static final int FROM_HEAD = 1;
+
+    /** Mark of a commit reachable from the second (the other commit). */
+    private static final int FROM_OTHER = 2;
+
+    /** Mark of a commit reachable from both. */
+    private static final int FROM_BOTH = FROM_HEAD | FROM_OTHER;
+
+    /** Mark of a commit that is an ancestor of a common ancestor already
+     *  found. */
+    private static final int STALE = 4;
+
+    /** Number of commits read that are not in the file above which the
+     *  file is rewritten by save. */
+    private static final int MAX_UNSAVED = 256;
+
+    /** The graph of the commits in STORE, whose file is FILE. */
+    private CommitGraph(File file, ObjectStore store) {
+        _file = file;
+        _store = store;
+        if (file.isFile()) {
+            try (FileChannel channel = FileChannel.open(file.toPath())) {
+                _map = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                   channel.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (_map.getInt(0) != MAGIC || _map.getInt(4) != VERSION) {
+                throw new IllegalArgumentException("bad commit graph "
+                                                   + file);
+            }
+            _idLength = _map.getInt(8);
+            _fileSize = _map.getInt(12);
+        } else {
+            _idLength = store.idLength();
+        }
+        _data = HEADER + FANOUT + _fileSize * _idLength;
+    }
+
+    /** Return the commit graph of STORE, the object store of the
+     *  repository whose .gitlet directory is GITLETDIR. */
+    static CommitGraph read(File gitletDir, ObjectStore store) {
+        return new CommitGraph(Utils.join(gitletDir, "commit-graph"),
+                               store);
+    }
+
+    /** Return the number of commits given positions so far. */
+    int size() {
+        return _fileSize + _added.size();
+    }
+
+    /** Return the position of the commit ID, reading it and those of its
+     *  ancestors that have no position yet. */
+    int position(String id) {
+        int pos = find(id);
+        if (pos >= 0) {
+            return pos;
+        }
+        ArrayList<String> work = new ArrayList<>();
+        work.add(id);
+        while (!work.isEmpty()) {
+            String top = work.get(work.size() - 1);
+            if (find(top) >= 0) {
+                work.remove(work.size() - 1);
+                continue;
+            }
+            Commit commit = Commit.load(_store, top);
+            String p1 = commit.getParentHash(),
+                p2 = commit.getBranchParentHash();
+            int pos1 = p1 == null ? -1 : find(p1),
+                pos2 = p2 == null ? -1 : find(p2);
+            if (p1 != null && pos1 < 0) {
+                work.add(p1);
+            } else if (p2 != null && pos2 < 0) {
+                work.add(p2);
+            } else {
+                work.remove(work.size() - 1);
+                add(top, pos1, pos2, commit.getTimeStamp().getTime());
+            }
+        }
+        return find(id);
+    }
+
+    /** Return the id of the commit at position POS. */
+    String idAt(int pos) {
+        if (pos >= _fileSize) {
+            return _added.get(pos - _fileSize);
+        }
+        byte[] raw = new byte[_idLength];
+        _map.get(HEADER + FANOUT + pos * _idLength, raw);
+        return Utils.toHex(raw);
+    }
+
+    /** Return the position of the first parent of the commit at POS, or
+     *  -1 if it has none. */
+    int firstParent(int pos) {
+        return pos < _fileSize ? _map.getInt(_data + pos * ENTRY)
+            : _parents1[pos - _fileSize];
+    }
+
+    /** Return the position of the second (merged-in) parent of the
+     *  commit at POS, or -1 if it has none. */
+    int secondParent(int pos) {
+        return pos < _fileSize ? _map.getInt(_data + pos * ENTRY + 4)
+            : _parents2[pos - _fileSize];
+    }
+
+    /** Return the generation of the commit at POS. */
+    int generation(int pos) {
+        return pos < _fileSize ? _map.getInt(_data + pos * ENTRY + 8)
+            : _generations[pos - _fileSize];
+    }
+
+    /** Return the date of the commit at POS, in milliseconds since the
+     *  epoch. */
+    long date(int pos) {
+        return pos < _fileSize ? _map.getLong(_data + pos * ENTRY + 12)
+            : _dates[pos - _fileSize];
+    }
+
+    /** Return true iff the commit at position ANCESTOR is the commit at
+     *  POS or one of its ancestors.  Commits whose generation is below
+     *  ANCESTOR's are not explored. */
+    boolean isAncestor(int ancestor, int pos) {
+        int floor = generation(ancestor);
+        BitSet seen = new BitSet(size());
+        int[] work = new int[16];
+        int top = 0;
+        work[top++] = pos;
+        while (top > 0) {
+            int p = work[--top];
+            if (p == ancestor) {
+                return true;
+            }
+            if (p < 0 || seen.get(p) || generation(p) <= floor) {
+                continue;
+            }
+            seen.set(p);
+            if (top + 2 > work.length) {
+                work = Arrays.copyOf(work, 2 * work.length);
+            }
+            work[top++] = secondParent(p);
+            work[top++] = firstParent(p);
+        }
+        return false;
+    }
+
+    /** Return the position of the best common ancestor of the commits at
+     *  positions HEAD and OTHER: a common ancestor that is not an
+     *  ancestor of any other common ancestor.  Both histories are walked
+     *  together, highest generation first, marking each commit with the
+     *  sides it is reachable from; a commit reached from both is a best
+     *  common ancestor, and its own ancestors are marked stale.  The walk
+     *  stops when only stale commits remain, so it never goes below the
+     *  generation of the oldest best common ancestor.  When there are
+     *  several (after criss-cross merges), the one that a breadth-first
+     *  search from HEAD reaches first, following first parents before
+     *  second ones, is chosen.  Returns -1 if there is no common
+     *  ancestor. */
+    int mergeBase(int head, int other) {
+        if (head == other) {
+            return head;
+        }
+        byte[] flags = new byte[size()];
+        Heap queue = new Heap();
+        flags[head] = FROM_HEAD;
+        flags[other] = FROM_OTHER;
+        queue.push(head);
+        queue.push(other);
+        int live = 2;
+        ArrayList<Integer> bases = new ArrayList<>();
+        while (live > 0) {
+            int pos = queue.pop();
+            int mark = flags[pos];
+            if ((mark & STALE) == 0) {
+                live -= 1;
+            }
+            if ((mark & FROM_BOTH) == FROM_BOTH && (mark & STALE) == 0) {
+                bases.add(pos);
+                mark |= STALE;
+                flags[pos] = (byte) mark;
+            }
+            for (int parent : new int[] {firstParent(pos),
+                                         secondParent(pos)}) {
+                if (parent < 0 || (flags[parent] & mark) == mark) {
+                    continue;
+                }
+                boolean wasLive = queue.contains(parent)
+                    && (flags[parent] & STALE) == 0;
+                flags[parent] |= mark;
+                if (!queue.contains(parent)) {
+                    queue.push(parent);
+                    if ((flags[parent] & STALE) == 0) {
+                        live += 1;
+                    }
+                } else if (wasLive && (flags[parent] & STALE) != 0) {
+                    live -= 1;
+                }
+            }
+        }
+        if (bases.size() <= 1) {
+            return bases.isEmpty() ? -1 : bases.get(0);
+        }
+        return nearest(head, bases);
+    }
+
+    /** Return the positions of the commit at TIP and of those of its
+     *  ancestors that are not among the commits at the positions in
+     *  EXCLUDED or their ancestors, oldest generation first.  As in
+     *  mergeBase, both histories are walked together, highest generation
+     *  first, so the walk stops once every commit left to visit is
+     *  reachable from EXCLUDED. */
+    List<Integer> reachableOnly(int tip, List<Integer> excluded) {
+        byte[] flags = new byte[size()];
+        Heap queue = new Heap();
+        for (int pos : excluded) {
+            if (!queue.contains(pos)) {
+                queue.push(pos);
+            }
+            flags[pos] = FROM_OTHER;
+        }
+        int live = 0;
+        if (!queue.contains(tip)) {
+            queue.push(tip);
+            flags[tip] = FROM_HEAD;
+            live = 1;
+        }
+        ArrayList<Integer> result = new ArrayList<>();
+        while (live > 0) {
+            int pos = queue.pop();
+            int mark = flags[pos];
+            if (mark == FROM_HEAD) {
+                live -= 1;
+                result.add(pos);
+            }
+            for (int parent : new int[] {firstParent(pos),
+                                         secondParent(pos)}) {
+                if (parent < 0 || (flags[parent] & mark) == mark) {
+                    continue;
+                }
+                boolean queued = queue.contains(parent),
+                    wasLive = queued && flags[parent] == FROM_HEAD;
+                flags[parent] |= mark;
+                if (!queued) {
+                    queue.push(parent);
+                    if (flags[parent] == FROM_HEAD) {
+                        live += 1;
+                    }
+                } else if (wasLive && flags[parent] != FROM_HEAD) {
+                    live -= 1;
+                }
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /** Return the first of the positions in TARGETS that a breadth-first
+     *  search from the commit at FROM reaches, following first parents
+     *  before second ones.  Commits older than every target are not
+     *  explored. */
+    private int nearest(int from, List<Integer> targets) {
+        BitSet wanted = new BitSet(size());
+        int floor = Integer.MAX_VALUE;
+        for (int target : targets) {
+            wanted.set(target);
+            floor = Math.min(floor, generation(target));
+        }
+        BitSet queued = new BitSet(size());
+        int[] queue = new int[size()];
+        int first = 0, last = 0;
+        queue[last++] = from;
+        queued.set(from);
+        while (first < last) {
+            int pos = queue[first++];
+            if (wanted.get(pos)) {
+                return pos;
+            }
+            for (int parent : new int[] {firstParent(pos),
+                                         secondParent(pos)}) {
+                if (parent >= 0 && !queued.get(parent)
+                    && generation(parent) >= floor) {
+                    queued.set(parent);
+                    queue[last++] = parent;
+                }
+            }
+        }
+        return targets.get(0);
+    }
+
+    /** Rewrite the file if many commits had to be read because it did
+     *  not include them. */
+    void save() {
+        if (_added.size() > MAX_UNSAVED) {
+            write();
+        }
+    }
+
+    /** Write a file holding every commit in the store, replacing the old
+     *  one atomically.  Only commits not already in the graph are
+     *  read. */
+    void write() {
+        List<String> ids = _store.list(ObjectStore.COMMIT);
+        int[] old = new int[ids.size()];
+        int[] newPos = new int[size() + ids.size()];
+        Arrays.fill(newPos, -1);
+        for (int k = 0; k < ids.size(); k += 1) {
+            old[k] = position(ids.get(k));
+        }
+        for (int k = 0; k < ids.size(); k += 1) {
+            newPos[old[k]] = k;
+        }
+        int[] fanout = new int[256];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        File temp = Utils.tempFileFor(_file);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        temp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(_idLength);
+            out.writeInt(ids.size());
+            int total = 0;
+            for (int count : fanout) {
+                total += count;
+                out.writeInt(total);
+            }
+            for (String id : ids) {
+                out.write(Utils.fromHex(id));
+            }
+            for (int pos : old) {
+                int p1 = firstParent(pos), p2 = secondParent(pos);
+                out.writeInt(p1 < 0 ? -1 : newPos[p1]);
+                out.writeInt(p2 < 0 ? -1 : newPos[p2]);
+                out.writeInt(generation(pos));
+                out.writeLong(date(pos));
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), _file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** A queue of commit positions, highest generation first, then
+     *  latest date, then highest position.  A position is in the queue
+     *  at most once. */
+    private class Heap {
+
+        /** Add POS. */
+        void push(int pos) {
+            if (_size == _heap.length) {
+                _heap = Arrays.copyOf(_heap, 2 * _size);
+            }
+            int k = _size++;
+            while (k > 0 && before(pos, _heap[(k - 1) / 2])) {
+                _heap[k] = _heap[(k - 1) / 2];
+                k = (k - 1) / 2;
+            }
+            _heap[k] = pos;
+            _queued.set(pos);
+        }
+
+        /** Remove and return the first position. */
+        int pop() {
+            int result = _heap[0];
+            int last = _heap[--_size];
+            int k = 0;
+            while (2 * k + 1 < _size) {
+                int child = 2 * k + 1;
+                if (child + 1 < _size
+                    && before(_heap[child + 1], _heap[child])) {
+                    child += 1;
+                }
+                if (!before(_heap[child], last)) {
+                    break;
+                }
+                _heap[k] = _heap[child];
+                k = child;
+            }
+            _heap[k] = last;
+            _queued.clear(result);
+            return result;
+        }
+
+        /** Return true iff POS is in the queue. */
+        boolean contains(int pos) {
+            return _queued.get(pos);
+        }
+
+        /** Return true iff the position A comes before B. */
+        private boolean before(int a, int b) {
+            if (generation(a) != generation(b)) {
+                return generation(a) > generation(b);
+            } else if (date(a) != date(b)) {
+                return date(a) > date(b);
+            }
+            return a > b;
+        }
+
+        /** The queue, as a binary heap in its first _size elements. */
+        private int[] _heap = new int[16];
+        /** Number of positions in the queue. */
+        private int _size;
+        /** The positions in the queue. */
+        private final BitSet _queued = new BitSet();
+    }
+
+    /** Return the position of the commit ID, or -1 if it has none yet. */
+    private int find(String id) {
+        Integer added = _addedPositions.get(id);
+        if (added != null) {
+            return added;
+        }
+        if (_fileSize == 0 || id.length() != 2 * _idLength) {
+            return -1;
+        }
+        byte[] raw = Utils.fromHex(id);
+        int first = raw[0] & 0xff;
+        int lo = first == 0 ? 0 : _map.getInt(HEADER + 4 * (first - 1)),
+            hi = _map.getInt(HEADER + 4 * first);
+        byte[] probe = new byte[_idLength];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            _map.get(HEADER + FANOUT + mid * _idLength, probe);
+            int cmp = Arrays.compareUnsigned(probe, raw);
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Give the commit ID, whose parents are at positions POS1 and POS2
+     *  (-1 where absent) and whose date is DATE, the next position. */
+    private void add(String id, int pos1, int pos2, long date) {
+        int n = _added.size();
+        if (n == _parents1.length) {
+            int capacity = 2 * n + 16;
+            _parents1 = Arrays.copyOf(_parents1, capacity);
+            _parents2 = Arrays.copyOf(_parents2, capacity);
+            _generations = Arrays.copyOf(_generations, capacity);
+            _dates = Arrays.copyOf(_dates, capacity);
+        }
+        _parents1[n] = pos1;
+        _parents2[n] = pos2;
+        _generations[n] = 1 + Math.max(pos1 < 0 ? 0 : generation(pos1),
+                                       pos2 < 0 ? 0 : generation(pos2));
+        _dates[n] = date;
+        _addedPositions.put(id, _fileSize + n);
+        _added.add(id);
+    }
+
+    /** The file holding the graph. */
+    private final File _file;
+
+    /** The store holding the commits. */
+    private final ObjectStore _store;
+
+    /** The memory-mapped file, or null if there is none. */
+    private MappedByteBuffer _map;
+
+    /** Length of an id, in bytes. */
+    private final int _idLength;
+
+    /** Number of commits in the file. */
+    private int _fileSize;
+
+    /** Position in the file of the data of the commit at position 0. */
+    private final int _data;
+
+    /** Ids of the commits not in the file, by position less _fileSize. */
+    private final ArrayList<String> _added = new ArrayList<>();
+
+    /** Positions of the commits not in the file, by id. */
+    private final HashMap<String, Integer> _addedPositions = new HashMap<>();
+
+    /** First parents, second parents and generations of the commits not
+     *  in the file, by position less _fileSize. */
+    private int[] _parents1 = new int[0], _parents2 = new int[0],
+        _generations = new int[0];
+
+    /** Dates of the commits not in the file, by position less
+     *  _fileSize. */
+    private long[] _dates = new long[0];
+}
@@ -0,0 +1,152 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/** A sorted index of the ids of the packed commits of a repository, used
+ *  to resolve abbreviated commit ids.  The file is the magic number
+ *  MAGIC, a format version, the length in bytes of an id and the number
+ *  of ids, followed by a 256-entry fan-out table as in a pack index and
+ *  the raw ids in ascending order.  It is memory-mapped, so resolving a
+ *  prefix is a binary search that reads only a few pages of the file.
+ *  The index is rebuilt whenever the repository is repacked; commits
+ *  written since are loose, and are found in their shard directory.
+ *  @author Stephen Ip
+ */
+class CommitIndex {
+
+    /** Magic number at the start of a commit index. */
+    private static final int MAGIC = 0x47434958;
+
+    /** Version of the commit index format. */
+    private static final int VERSION = 1;
+
+    /** Size of the header, in bytes. */
+    private static final int HEADER = 16;
+
+    /** Size of the fan-out table, in bytes. */
+    private static final int FANOUT = 256 * 4;
+
+    /** The commit index stored in FILE. */
+    private CommitIndex(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            _map = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                               channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_map.getInt(0) != MAGIC || _map.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("bad commit index " + file);
+        }
+        _idLength = _map.getInt(8);
+        _size = _map.getInt(12);
+    }
+
+    /** Return the commit index stored in FILE, or null if there is
+     *  none. */
+    static CommitIndex read(File file) {
+        return file.isFile() ? new CommitIndex(file) : null;
+    }
+
+    /** Write IDS, which are LENGTH bytes long and in ascending order, to
+     *  FILE as a commit index, replacing it atomically. */
+    static void write(File file, List<String> ids, int length) {
+        File temp = Utils.tempFileFor(file);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        temp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(length);
+            out.writeInt(ids.size());
+            int[] fanout = new int[256];
+            for (String id : ids) {
+                fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+            }
+            int total = 0;
+            for (int count : fanout) {
+                total += count;
+                out.writeInt(total);
+            }
+            for (String id : ids) {
+                out.write(Utils.fromHex(id));
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return at most LIMIT of the ids that start with PREFIX, a
+     *  hexadecimal numeral of any length, in ascending order. */
+    List<String> withPrefix(String prefix, int limit) {
+        int lo = 0, hi = _size;
+        if (prefix.length() >= 2) {
+            int first = Integer.parseInt(prefix.substring(0, 2), 16);
+            lo = first == 0 ? 0 : _map.getInt(HEADER + 4 * (first - 1));
+            hi = _map.getInt(HEADER + 4 * first);
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        ArrayList<String> result = new ArrayList<>();
+        for (int pos = lo; pos < _size && result.size() < limit
+                 && compareAt(pos, prefix) == 0; pos += 1) {
+            result.add(idAt(pos));
+        }
+        return result;
+    }
+
+    /** Compare the first PREFIX.length() hexadecimal digits of the id at
+     *  position POS with PREFIX. */
+    private int compareAt(int pos, String prefix) {
+        int base = HEADER + FANOUT + pos * _idLength;
+        int n = Math.min(prefix.length(), 2 * _idLength);
+        for (int i = 0; i < n; i += 1) {
+            int b = _map.get(base + i / 2) & 0xff;
+            int digit = i % 2 == 0 ? b >> 4 : b & 0xf;
+            int cmp = digit - Character.digit(prefix.charAt(i), 16);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the id at position POS. */
+    private String idAt(int pos) {
+        byte[] raw = new byte[_idLength];
+        _map.get(HEADER + FANOUT + pos * _idLength, raw);
+        return Utils.toHex(raw);
+    }
+
+    /** The memory-mapped index file. */
+    private final MappedByteBuffer _map;
+
+    /** Length of an id, in bytes. */
+    private final int _idLength;
+
+    /** Number of ids. */
+    private final int _size;
+}
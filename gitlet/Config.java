@@ -0,0 +1,98 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** The settings of a repository, stored as "KEY = VALUE" lines in the
+ *  file .gitlet/config.  Settings that are absent take their defaults.
+ *  @author Stephen Ip
+ */
+public class Config {
+
+    /** Compression level used for stored objects, 0 (none) to 9. */
+    static final String COMPRESSION = "core.compression";
+
+    /** Longest chain of deltas a stored blob may be rebuilt through. */
+    static final String DELTA_DEPTH = "core.deltaDepth";
+
+    /** Hash algorithm naming objects, "sha1" or "sha256".  Fixed when the
+     *  repository is created. */
+    static final String HASH_ALGORITHM = "core.hashAlgorithm";
+
+    /** Whether checkouts hard-link blobs into the working tree. */
+    static final String HARDLINKS = "core.hardlinks";
+
+    /** Arrangement of the loose object folders. */
+    static final String LAYOUT = "core.layout";
+
+    /** The settings stored in FILE, which need not exist. */
+    private Config(File file) {
+        _file = file;
+        _settings = new TreeMap<>();
+    }
+
+    /** Return the settings stored in FILE, which are empty if FILE does
+     *  not exist. */
+    public static Config read(File file) {
+        Config config = new Config(file);
+        if (file.isFile()) {
+            for (String line : Utils.readContentsAsString(file).split("\n")) {
+                int eq = line.indexOf('=');
+                if (eq > 0) {
+                    config._settings.put(line.substring(0, eq).trim(),
+                            line.substring(eq + 1).trim());
+                }
+            }
+        }
+        return config;
+    }
+
+    /** Return the value of KEY, or DEFAULTVALUE if it is not set. */
+    public String get(String key, String defaultValue) {
+        return _settings.getOrDefault(key, defaultValue);
+    }
+
+    /** Return the integer value of KEY, or DEFAULTVALUE if it is not set.
+     *  Throws GitletException if the value is not an integer. */
+    public int getInt(String key, int defaultValue) {
+        String value = _settings.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Bad value for %s: %s", key, value);
+        }
+    }
+
+    /** Return the boolean value of KEY, or DEFAULTVALUE if it is not
+     *  set. */
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = _settings.get(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    /** Return all settings, in key order. */
+    public Map<String, String> getSettings() {
+        return _settings;
+    }
+
+    /** Set KEY to VALUE and write the settings back to my file. */
+    public void set(String key, String value) {
+        _settings.put(key, value);
+        StringBuilder contents = new StringBuilder();
+        for (Map.Entry<String, String> entry : _settings.entrySet()) {
+            contents.append(entry.getKey()).append(" = ")
+                    .append(entry.getValue()).append('\n');
+        }
+        Utils.writeContentsAtomic(_file, contents.toString());
+    }
+
+    /** The file these settings are stored in. */
+    private final File _file;
+
+    /** The settings, by key. */
+    private final TreeMap<String, String> _settings;
+}
@@ -0,0 +1,275 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+
+/** A resident process that runs the commands of one repository, so that
+ *  they are spared the start-up of a JVM and find the repository's
+ *  state and objects already read.  Started by gitlet daemon, it listens
+ *  on the Unix domain socket SOCKET, and Main forwards each command run
+ *  in the repository's directory to it, taking the command's output and
+ *  exit status from it.
+ *
+ *  A command is sent as a frame (see Protocol) holding its arguments;
+ *  the answer is a series of records, each a kind byte: STDOUT or STDERR
+ *  followed by a length and that many bytes of output, or EXIT followed
+ *  by the exit status, which ends it.  Commands are run one at a time.
+ *  Before each, whatever was read from a file of the repository that
+ *  has changed since the last command ended (as by a push from another
+ *  repository) is forgotten and read afresh, so that every command
+ *  behaves as it would in a process of its own.
+ *  @author Stephen Ip
+ */
+class Daemon {
+
+    /** The socket of the daemon of the repository in the current
+     *  directory. */
+    static final File SOCKET = Utils.join(Main.GITLET_FOLDER, "daemon.sock");
+
+    /** Kind of a record of output to the standard output. */
+    private static final int STDOUT = 1;
+
+    /** Kind of a record of output to the standard error. */
+    private static final int STDERR = 2;
+
+    /** Kind of the record holding the exit status. */
+    private static final int EXIT = 0;
+
+    /** The files holding the repository state that Main keeps between
+     *  commands, aside from its objects. */
+    private static final List<File> STATE = List.of(
+        Utils.join(Main.GITLET_FOLDER, "pointers"),
+        Utils.join(Main.GITLET_FOLDER, "index"),
+        Utils.join(Main.GITLET_FOLDER, "commit-graph"),
+        Utils.join(Main.GITLET_FOLDER, "messages"),
+        Utils.join(Main.GITLET_FOLDER, "messages.log"));
+
+    /** The files whose change makes the objects of the repository be
+     *  read afresh. */
+    private static final List<File> STORE = List.of(
+        Utils.join(Main.GITLET_FOLDER, "config"),
+        Utils.join(Main.GITLET_FOLDER, "pack"));
+
+    /** Run the command ARGS in the daemon of the repository in the
+     *  current directory, copying its output to System.out and
+     *  System.err.  Returns its exit status, or -1 if no daemon is
+     *  running there, in which case nothing has been done. */
+    static int forward(String[] args) {
+        return forward(SOCKET, args);
+    }
+
+    /** Run the command ARGS in the daemon listening on SOCKET, as for
+     *  forward(ARGS). */
+    static int forward(File socket, String[] args) {
+        if (!socket.exists()) {
+            return -1;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(
+                    socket.toPath()));
+        } catch (IOException excp) {
+            return -1;
+        }
+        try (channel;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(
+                     Channels.newInputStream(channel)));
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(
+                             Channels.newOutputStream(channel)))) {
+            Codec.Encoder request = new Codec.Encoder()
+                .writeVarint(args.length);
+            for (String arg : args) {
+                request.writeString(arg);
+            }
+            Protocol.writeFrame(out, request);
+            out.flush();
+            byte[] buf = new byte[0];
+            for (int kind = in.readByte(); kind != EXIT;
+                 kind = in.readByte()) {
+                int length = in.readInt();
+                if (length > buf.length) {
+                    buf = new byte[length];
+                }
+                in.readFully(buf, 0, length);
+                PrintStream stream = kind == STDOUT ? System.out : System.err;
+                stream.write(buf, 0, length);
+                stream.flush();
+            }
+            return in.readInt();
+        } catch (IOException excp) {
+            System.err.println("Lost the daemon: " + excp.getMessage());
+            return 1;
+        }
+    }
+
+    /** Listen on SOCKET and run the commands sent there until told to
+     *  stop.  Throws GitletException if a daemon is already running in
+     *  the repository, or SOCKET cannot be listened on. */
+    void serve() {
+        if (forward(new String[] { "daemon", "ping" }) >= 0) {
+            throw Utils.error("A daemon is already running.");
+        }
+        SOCKET.delete();
+        try (ServerSocketChannel listener = ServerSocketChannel.open(
+                StandardProtocolFamily.UNIX)) {
+            listener.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            SOCKET.deleteOnExit();
+            record();
+            while (_running) {
+                try (SocketChannel channel = listener.accept()) {
+                    handle(channel);
+                } catch (IOException excp) {
+                    continue;
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot listen on %s: %s", SOCKET,
+                              excp.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /** Run the command sent on CHANNEL and send back its output and exit
+     *  status. */
+    private void handle(SocketChannel channel) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel)));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel)));
+        Codec.Decoder request = Protocol.readFrame(in);
+        String[] args = new String[request.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = request.readString();
+        }
+        int status = 0;
+        if (args.length >= 1 && args[0].equals("daemon")) {
+            if (args.length == 2 && args[1].equals("stop")) {
+                _running = false;
+            }
+        } else {
+            status = run(args, out);
+        }
+        out.writeByte(EXIT);
+        out.writeInt(status);
+        out.flush();
+    }
+
+    /** Run the command ARGS, sending its output to OUT.  Returns its exit
+     *  status. */
+    private int run(String[] args, DataOutputStream out) {
+        Main.forget(file -> !Objects.equals(stamp(file), _stamps.get(file)));
+        PrintStream stdout = System.out, stderr = System.err;
+        PrintStream forwardOut = new PrintStream(new Forward(out, STDOUT)),
+            forwardErr = new PrintStream(new Forward(out, STDERR));
+        int status = 0;
+        System.setOut(forwardOut);
+        System.setErr(forwardErr);
+        try {
+            if (!Main.run(args)) {
+                Main.forget(STATE::contains);
+            }
+        } catch (Throwable excp) {
+            forwardErr.print("Exception in thread \"main\" ");
+            excp.printStackTrace(forwardErr);
+            Main.forget(file -> true);
+            status = 1;
+        } finally {
+            forwardOut.flush();
+            forwardErr.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        record();
+        Runtime runtime = Runtime.getRuntime();
+        if (runtime.totalMemory() - runtime.freeMemory()
+            > runtime.maxMemory() / 2) {
+            Main.forget(STORE::contains);
+        }
+        return status;
+    }
+
+    /** Note the current stamps of the files in STATE and STORE. */
+    private void record() {
+        for (List<File> files : List.of(STATE, STORE)) {
+            for (File file : files) {
+                _stamps.put(file, stamp(file));
+            }
+        }
+    }
+
+    /** Return a string that changes whenever FILE is written, replaced or
+     *  removed. */
+    private static String stamp(File file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(
+                file.toPath(), BasicFileAttributes.class);
+            return attrs.fileKey() + " " + attrs.lastModifiedTime().toMillis()
+                + " " + attrs.size();
+        } catch (NoSuchFileException excp) {
+            return "absent";
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Output written by a command, sent as records of kind KIND. */
+    private static class Forward extends OutputStream {
+
+        /** Output sent to OUT as records of kind KIND. */
+        Forward(DataOutputStream out, int kind) {
+            _out = out;
+            _kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            if (len > 0) {
+                _out.writeByte(_kind);
+                _out.writeInt(len);
+                _out.write(buf, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            _out.flush();
+        }
+
+        /** The stream to the client. */
+        private final DataOutputStream _out;
+
+        /** The kind of my records. */
+        private final int _kind;
+    }
+
+    /** The stamps of the files of the repository as of the end of the
+     *  last command. */
+    private final HashMap<File, String> _stamps = new HashMap<>();
+
+    /** False once told to stop. */
+    private boolean _running = true;
+}
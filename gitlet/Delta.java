@@ -0,0 +1,214 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** Line-based deltas between two versions of a file.  A delta is a
+ *  sequence of instructions that rebuild the new version from the old
+ *  one (the base): either copy a range of lines of the base, or insert
+ *  some new bytes.  Lines are compared as raw bytes, and keep their line
+ *  terminators, so applying a delta reproduces the new version exactly,
+ *  whatever its encoding.
+ *
+ *  The lines common to the start and to the end of both versions are
+ *  matched directly; only the lines between them are handed to Diff,
+ *  and only if its table for them would be of modest size.  Otherwise
+ *  those lines are matched greedily through a table of line
+ *  positions.
+ *  @author Stephen Ip
+ */
+class Delta {
+
+    /** Largest number of cells of the table Diff may use for one delta. */
+    private static final long MAX_DIFF_CELLS = 1L << 22;
+
+    /** Number of occurrences of a line that are tried as the start of a
+     *  copied run, for sequences too long for Diff. */
+    private static final int MAX_CANDIDATES = 8;
+
+    /** Instruction to copy lines of the base. */
+    private static final byte COPY = 0;
+
+    /** Instruction to insert new bytes. */
+    private static final byte INSERT = 1;
+
+    /** Return a delta that converts BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        List<String> lines1 = lines(base), lines2 = lines(target);
+        int n1 = lines1.size(), n2 = lines2.size();
+        int prefix = 0;
+        while (prefix < n1 && prefix < n2
+               && lines1.get(prefix).equals(lines2.get(prefix))) {
+            prefix += 1;
+        }
+        int suffix = 0;
+        while (suffix < n1 - prefix && suffix < n2 - prefix
+               && lines1.get(n1 - 1 - suffix)
+                  .equals(lines2.get(n2 - 1 - suffix))) {
+            suffix += 1;
+        }
+        List<String> mid1 = lines1.subList(prefix, n1 - suffix),
+            mid2 = lines2.subList(prefix, n2 - suffix);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            copy(out, 0, prefix);
+            if ((long) (mid1.size() + 1) * (mid2.size() + 1)
+                <= MAX_DIFF_CELLS) {
+                diffMiddle(out, prefix, mid1, mid2);
+            } else {
+                matchMiddle(out, prefix, mid1, mid2);
+            }
+            copy(out, n1 - suffix, suffix);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Write to OUT the instructions that convert MID1, the lines of the
+     *  base starting at line PREFIX, into MID2, using the edits found by
+     *  Diff. */
+    private static void diffMiddle(DataOutputStream out, int prefix,
+                                   List<String> mid1, List<String> mid2)
+        throws IOException {
+        Diff diff = new Diff();
+        diff.setSequences(mid1, mid2);
+        int[] edits = diff.diffs();
+        int next = 0;
+        for (int k = 0; k < edits.length; k += 4) {
+            copy(out, prefix + next, edits[k] - next);
+            insert(out, mid2.subList(edits[k + 2],
+                                     edits[k + 2] + edits[k + 3]));
+            next = edits[k] + edits[k + 1];
+        }
+        copy(out, prefix + next, mid1.size() - next);
+    }
+
+    /** Write to OUT instructions that convert MID1, the lines of the base
+     *  starting at line PREFIX, into MID2, for sequences too long for
+     *  Diff.  Each line of MID2 is looked up among the lines of MID1, and
+     *  the longest run of lines that matches from one of its first few
+     *  occurrences is copied.  Lines with no match are inserted. */
+    private static void matchMiddle(DataOutputStream out, int prefix,
+                                    List<String> mid1, List<String> mid2)
+        throws IOException {
+        HashMap<String, ArrayList<Integer>> where = new HashMap<>();
+        for (int i = 0; i < mid1.size(); i += 1) {
+            ArrayList<Integer> places =
+                where.computeIfAbsent(mid1.get(i), k -> new ArrayList<>());
+            if (places.size() < MAX_CANDIDATES) {
+                places.add(i);
+            }
+        }
+        int unmatched = 0;
+        int i = 0;
+        while (i < mid2.size()) {
+            int bestStart = -1, bestLength = 0;
+            for (int start : where.getOrDefault(mid2.get(i),
+                                                new ArrayList<>())) {
+                int length = 0;
+                while (start + length < mid1.size()
+                       && i + length < mid2.size()
+                       && mid1.get(start + length)
+                          .equals(mid2.get(i + length))) {
+                    length += 1;
+                }
+                if (length > bestLength) {
+                    bestStart = start;
+                    bestLength = length;
+                }
+            }
+            if (bestLength == 0) {
+                i += 1;
+                continue;
+            }
+            insert(out, mid2.subList(unmatched, i));
+            copy(out, prefix + bestStart, bestLength);
+            i += bestLength;
+            unmatched = i;
+        }
+        insert(out, mid2.subList(unmatched, mid2.size()));
+    }
+
+    /** Return the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        ArrayList<Integer> starts = new ArrayList<>();
+        starts.add(0);
+        for (int i = 0; i < base.length; i += 1) {
+            if (base[i] == '\n' && i + 1 < base.length) {
+                starts.add(i + 1);
+            }
+        }
+        starts.add(base.length);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (DataInputStream in =
+                 new DataInputStream(new ByteArrayInputStream(delta))) {
+            while (in.available() > 0) {
+                byte op = in.readByte();
+                if (op == COPY) {
+                    int first = in.readInt(), count = in.readInt();
+                    int start = starts.get(first);
+                    result.write(base, start,
+                                 starts.get(first + count) - start);
+                } else if (op == INSERT) {
+                    result.write(in.readNBytes(in.readInt()));
+                } else {
+                    throw new IllegalArgumentException("corrupt delta");
+                }
+            }
+        } catch (IOException | IndexOutOfBoundsException excp) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return result.toByteArray();
+    }
+
+    /** Return the lines of CONTENTS, each with its terminator, as strings
+     *  with one character per byte. */
+    private static List<String> lines(byte[] contents) {
+        ArrayList<String> result = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < contents.length; i += 1) {
+            if (contents[i] == '\n') {
+                result.add(new String(contents, start, i + 1 - start,
+                                      StandardCharsets.ISO_8859_1));
+                start = i + 1;
+            }
+        }
+        if (start < contents.length) {
+            result.add(new String(contents, start, contents.length - start,
+                                  StandardCharsets.ISO_8859_1));
+        }
+        return result;
+    }
+
+    /** Write to OUT an instruction to copy COUNT lines of the base,
+     *  starting at line FIRST.  Writes nothing if COUNT is 0. */
+    private static void copy(DataOutputStream out, int first, int count)
+        throws IOException {
+        if (count > 0) {
+            out.writeByte(COPY);
+            out.writeInt(first);
+            out.writeInt(count);
+        }
+    }
+
+    /** Write to OUT an instruction to insert LINES.  Writes nothing if
+     *  there are no LINES. */
+    private static void insert(DataOutputStream out, List<String> lines)
+        throws IOException {
+        if (!lines.isEmpty()) {
+            byte[] inserted = String.join("", lines)
+                .getBytes(StandardCharsets.ISO_8859_1);
+            out.writeByte(INSERT);
+            out.writeInt(inserted.length);
+            out.write(inserted);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+
+/** An immutable set of small non-negative integers, compressed in the
+ *  manner of EWAH (enhanced word-aligned hybrid) bitmaps.  The set is
+ *  viewed as a sequence of 64-bit words, and stored as a sequence of
+ *  markers, each followed by the literal words it announces.  A marker
+ *  says that some number of clean words (all zeros, or all ones, as
+ *  given by its low bit) come next, followed by its literal words.  In
+ *  a marker, bit 0 is the value of the clean words, bits 1-32 their
+ *  number and bits 33-63 the number of literal words.  Long runs of
+ *  absent or present values thus cost one word, and set operations
+ *  run word by word over the compressed forms.
+ *  @author Stephen Ip
+ */
+class EwahBitmap {
+
+    /** Largest number of clean words one marker can announce. */
+    private static final long MAX_RUN = (1L << 32) - 1;
+
+    /** Largest number of literal words one marker can announce. */
+    private static final long MAX_LITERALS = (1L << 31) - 1;
+
+    /** A bitmap whose compressed form is the first LENGTH of WORDS. */
+    private EwahBitmap(long[] words, int length) {
+        _words = words;
+        _length = length;
+    }
+
+    /** Return a bitmap of the values in BITS. */
+    static EwahBitmap of(BitSet bits) {
+        Builder result = new Builder();
+        for (long word : bits.toLongArray()) {
+            result.add(word);
+        }
+        return result.build();
+    }
+
+    /** Return the bitmap stored at the current position of IN, as written
+     *  by write, advancing past it. */
+    static EwahBitmap read(ByteBuffer in) {
+        int length = in.getInt();
+        long[] words = new long[length];
+        for (int k = 0; k < length; k += 1) {
+            words[k] = in.getLong();
+        }
+        return new EwahBitmap(words, length);
+    }
+
+    /** Write my compressed form to OUT. */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(_length);
+        for (int k = 0; k < _length; k += 1) {
+            out.writeLong(_words[k]);
+        }
+    }
+
+    /** Return the values that are in me but not in OTHER. */
+    EwahBitmap andNot(EwahBitmap other) {
+        Builder result = new Builder();
+        Words mine = new Words(), theirs = other.new Words();
+        while (mine.hasNext()) {
+            long word = mine.next();
+            result.add(theirs.hasNext() ? word & ~theirs.next() : word);
+        }
+        return result.build();
+    }
+
+    /** Return my values as a BitSet. */
+    BitSet toBitSet() {
+        long[] words = new long[64];
+        int n = 0;
+        for (Words it = new Words(); it.hasNext(); n += 1) {
+            if (n == words.length) {
+                words = Arrays.copyOf(words, 2 * n);
+            }
+            words[n] = it.next();
+        }
+        return BitSet.valueOf(Arrays.copyOf(words, n));
+    }
+
+    /** Call ACTION on each of my values, in ascending order. */
+    void forEach(IntConsumer action) {
+        int base = 0;
+        for (Words it = new Words(); it.hasNext(); base += Long.SIZE) {
+            for (long word = it.next(); word != 0; word &= word - 1) {
+                action.accept(base + Long.numberOfTrailingZeros(word));
+            }
+        }
+    }
+
+    /** Return the number of my values. */
+    int cardinality() {
+        int result = 0;
+        for (Words it = new Words(); it.hasNext(); ) {
+            result += Long.bitCount(it.next());
+        }
+        return result;
+    }
+
+    /** Accumulates uncompressed words into a compressed bitmap. */
+    private static class Builder {
+
+        /** Append the uncompressed word WORD. */
+        void add(long word) {
+            boolean clean = word == 0 || word == -1;
+            long marker = _length == 0 ? 0 : _words[_marker];
+            long run = (marker >>> 1) & MAX_RUN, literals = marker >>> 33;
+            if (_length == 0 || clean && (literals > 0 || run == MAX_RUN
+                                          || run > 0
+                                             && (marker & 1) != (word & 1))
+                || !clean && literals == MAX_LITERALS) {
+                _marker = _length;
+                append(0);
+                marker = 0;
+                run = 0;
+                literals = 0;
+            }
+            if (clean) {
+                _words[_marker] = (word & 1) | (run + 1) << 1;
+            } else {
+                _words[_marker] = marker + (1L << 33);
+                append(word);
+            }
+        }
+
+        /** Return the bitmap built, with trailing zero words dropped. */
+        EwahBitmap build() {
+            if (_length > 0) {
+                long marker = _words[_marker];
+                if (marker >>> 33 == 0 && (marker & 1) == 0) {
+                    _length -= 1;
+                }
+            }
+            return new EwahBitmap(Arrays.copyOf(_words, _length), _length);
+        }
+
+        /** Append WORD to the compressed form. */
+        private void append(long word) {
+            if (_length == _words.length) {
+                _words = Arrays.copyOf(_words, 2 * _length);
+            }
+            _words[_length++] = word;
+        }
+
+        /** The compressed form, in the first _length words. */
+        private long[] _words = new long[16];
+        /** Number of words of the compressed form. */
+        private int _length;
+        /** Index of the last marker. */
+        private int _marker;
+    }
+
+    /** An iterator over my uncompressed words. */
+    private class Words {
+
+        /** Return true iff there are more words. */
+        boolean hasNext() {
+            while (_run == 0 && _literals == 0 && _next < _length) {
+                long marker = _words[_next++];
+                _clean = (marker & 1) == 0 ? 0 : -1;
+                _run = (marker >>> 1) & MAX_RUN;
+                _literals = marker >>> 33;
+            }
+            return _run > 0 || _literals > 0;
+        }
+
+        /** Return the next word. */
+        long next() {
+            hasNext();
+            if (_run > 0) {
+                _run -= 1;
+                return _clean;
+            }
+            _literals -= 1;
+            return _words[_next++];
+        }
+
+        /** Index of the next compressed word to read. */
+        private int _next;
+        /** Number of clean words left in the current run. */
+        private long _run;
+        /** Value of the clean words of the current run. */
+        private long _clean;
+        /** Number of literal words left after the current run. */
+        private long _literals;
+    }
+
+    /** The compressed form, in the first _length words. */
+    private final long[] _words;
+
+    /** Number of words of the compressed form. */
+    private final int _length;
+}
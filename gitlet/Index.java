@@ -0,0 +1,322 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/** The staging area: the files staged for addition, with the blobs they
+ *  will be committed as, and the files staged for removal.  The whole
+ *  area is kept in a single binary index file that is read once and
+ *  written back (atomically, and only if it changed) at the end of a
+ *  command.  Entries are kept sorted by file name.
+ *
+ *  The index also caches, for working files whose contents have been
+ *  hashed, the size, modification time and inode the file had at the
+ *  time, so that unchanged files need not be read and hashed again.  As
+ *  in Git, an entry whose modification time is not older than the index
+ *  file itself is "racy": the file might have changed again within the
+ *  same clock tick, so it is always rehashed.
+ *  @author Stephen Ip
+ */
+public class Index {
+
+    /** Magic number at the start of every index file. */
+    private static final int MAGIC = 0x474c4958;
+
+    /** Version of the index file format. */
+    private static final int VERSION = 2;
+
+    /** Entry kind of a file staged for addition. */
+    private static final byte ADDITION = 0;
+
+    /** Entry kind of a file staged for removal. */
+    private static final byte REMOVAL = 1;
+
+    /** An empty staging area stored in FILE. */
+    public Index(File file) {
+        _file = file;
+        _timestamp = Long.MIN_VALUE;
+    }
+
+    /** Return the staging area stored in FILE, which is empty if FILE does
+     *  not exist. */
+    public static Index read(File file) {
+        Index index = new Index(file);
+        if (!file.exists()) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Utils.readContents(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalArgumentException("bad index file");
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                byte kind = in.readByte();
+                String fileName = in.readUTF();
+                String blobName = in.readUTF();
+                (kind == ADDITION ? index._additions : index._removals)
+                        .put(fileName, blobName);
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String fileName = in.readUTF();
+                index._stats.put(fileName, new Stat(in.readUTF(),
+                        in.readLong(), in.readLong(), in.readLong()));
+            }
+            index._timestamp = Files.getLastModifiedTime(file.toPath())
+                    .to(TimeUnit.NANOSECONDS);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return index;
+    }
+
+    /** Return a copy of this staging area, which later changes to it do
+     *  not affect. */
+    public Index copy() {
+        Index copy = new Index(_file);
+        copy._additions.putAll(_additions);
+        copy._removals.putAll(_removals);
+        copy._stats.putAll(_stats);
+        copy._timestamp = _timestamp;
+        copy._changed = _changed;
+        return copy;
+    }
+
+    /** Stage FILENAME for addition as blob BLOBNAME. */
+    public void stageAddition(String fileName, String blobName) {
+        _removals.remove(fileName);
+        _additions.put(fileName, blobName);
+        _changed = true;
+    }
+
+    /** Stage FILENAME, currently tracked as blob BLOBNAME, for removal. */
+    public void stageRemoval(String fileName, String blobName) {
+        _additions.remove(fileName);
+        _removals.put(fileName, blobName);
+        _changed = true;
+    }
+
+    /** Unstage FILENAME.  Returns true iff it was staged. */
+    public boolean unstage(String fileName) {
+        boolean staged = _additions.remove(fileName) != null
+                | _removals.remove(fileName) != null;
+        _changed |= staged;
+        return staged;
+    }
+
+    /** Return the blob FILENAME is staged for addition as, or null if it
+     *  is not staged for addition. */
+    public String getAddition(String fileName) {
+        return _additions.get(fileName);
+    }
+
+    public boolean isStagedAdd(String fileName) {
+        return _additions.containsKey(fileName);
+    }
+
+    public boolean isStagedRem(String fileName) {
+        return _removals.containsKey(fileName);
+    }
+
+    /** Return the files staged for addition, mapped to their blobs. */
+    public Map<String, String> getAdditions() {
+        return _additions;
+    }
+
+    /** Return the files staged for removal, mapped to their blobs. */
+    public Map<String, String> getRemovals() {
+        return _removals;
+    }
+
+    /** Return the name of the blob holding the current contents of FILE,
+     *  the working file named FILENAME.  FILE is read and hashed only if
+     *  its size, modification time or inode differ from those cached for
+     *  it, or if the cached entry is racy. */
+    public String blobOf(String fileName, File file) {
+        return blobsOf(Map.of(fileName, file)).get(fileName);
+    }
+
+    /** Return the names of the blobs holding the current contents of
+     *  FILES, a mapping of working file names to files, as for blobOf.
+     *  The files are examined, and those that must be read are hashed,
+     *  in parallel on the common fork-join pool; my cached state is
+     *  updated once they are all done. */
+    public TreeMap<String, String> blobsOf(Map<String, File> files) {
+        ObjectStore store = Main.getObjects();
+        ArrayList<String> names = new ArrayList<>(files.keySet());
+        List<Stat> stats = names.parallelStream().map(fileName -> {
+            File file = files.get(fileName);
+            Stat cached = _stats.get(fileName);
+            Stat current = Stat.of(file, null);
+            if (cached != null && cached.sameFile(current)
+                    && cached._mtime < _timestamp) {
+                return cached;
+            }
+            return new Stat(store.hash(file), current._size,
+                            current._mtime, current._inode);
+        }).collect(Collectors.toList());
+        TreeMap<String, String> result = new TreeMap<>();
+        for (int i = 0; i < names.size(); i += 1) {
+            Stat stat = stats.get(i);
+            if (_stats.put(names.get(i), stat) != stat) {
+                _changed = true;
+            }
+            result.put(names.get(i), stat._blobName);
+        }
+        return result;
+    }
+
+    /** Record that FILE, the working file named FILENAME, was just
+     *  written with the contents of blob BLOBNAME. */
+    public void recordStat(String fileName, File file, String blobName) {
+        _stats.put(fileName, Stat.of(file, blobName));
+        _changed = true;
+    }
+
+    /** Forget any cached information about the working file FILENAME. */
+    public void forgetStat(String fileName) {
+        _changed |= _stats.remove(fileName) != null;
+    }
+
+    /** Return true iff nothing is staged. */
+    public boolean isEmpty() {
+        return _additions.isEmpty() && _removals.isEmpty();
+    }
+
+    /** Unstage everything. */
+    public void clear() {
+        _changed |= !isEmpty();
+        _additions.clear();
+        _removals.clear();
+    }
+
+    /** Write this staging area back to its file if it has changed.  The
+     *  entries cached are then judged racy against the new file, as they
+     *  would be were it read again. */
+    public void write() {
+        if (!_changed) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(_additions.size() + _removals.size());
+            writeEntries(out, ADDITION, _additions);
+            writeEntries(out, REMOVAL, _removals);
+            out.writeInt(_stats.size());
+            for (Map.Entry<String, Stat> entry : _stats.entrySet()) {
+                Stat stat = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeUTF(stat._blobName);
+                out.writeLong(stat._size);
+                out.writeLong(stat._mtime);
+                out.writeLong(stat._inode);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Utils.writeContentsAtomic(_file, bytes.toByteArray());
+        try {
+            _timestamp = Files.getLastModifiedTime(_file.toPath())
+                    .to(TimeUnit.NANOSECONDS);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _changed = false;
+    }
+
+    /** Write the entries in ENTRIES, all of kind KIND, to OUT. */
+    private static void writeEntries(DataOutputStream out, byte kind,
+                                     Map<String, String> entries)
+        throws IOException {
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            out.writeByte(kind);
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+    }
+
+    /** The cached state of a working file whose contents were hashed. */
+    private static class Stat {
+
+        /** A Stat for the contents BLOBNAME, with size SIZE, modification
+         *  time MTIME (in nanoseconds) and inode INODE. */
+        Stat(String blobName, long size, long mtime, long inode) {
+            _blobName = blobName;
+            _size = size;
+            _mtime = mtime;
+            _inode = inode;
+        }
+
+        /** Return the current Stat of FILE, whose contents are BLOBNAME.
+         *  The inode is 0 on file systems that do not report one. */
+        static Stat of(File file, String blobName) {
+            Path path = file.toPath();
+            try {
+                BasicFileAttributes attrs =
+                    Files.readAttributes(path, BasicFileAttributes.class);
+                long inode;
+                try {
+                    inode = ((Number) Files.getAttribute(path, "unix:ino"))
+                        .longValue();
+                } catch (UnsupportedOperationException excp) {
+                    inode = 0;
+                }
+                FileTime mtime = attrs.lastModifiedTime();
+                return new Stat(blobName, attrs.size(),
+                                mtime.to(TimeUnit.NANOSECONDS), inode);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Return true iff OTHER has my size, modification time and
+         *  inode. */
+        boolean sameFile(Stat other) {
+            return _size == other._size && _mtime == other._mtime
+                && _inode == other._inode;
+        }
+
+        /** Name of the blob holding the file's contents. */
+        private final String _blobName;
+        /** Size of the file in bytes. */
+        private final long _size;
+        /** Modification time of the file, in nanoseconds. */
+        private final long _mtime;
+        /** Inode number of the file, or 0 if unknown. */
+        private final long _inode;
+    }
+
+    /** The file this staging area is stored in. */
+    private final File _file;
+
+    /** Files staged for addition, mapped to their blob names. */
+    private final TreeMap<String, String> _additions = new TreeMap<>();
+
+    /** Files staged for removal, mapped to their tracked blob names. */
+    private final TreeMap<String, String> _removals = new TreeMap<>();
+
+    /** Cached state of hashed working files, by file name. */
+    private final TreeMap<String, Stat> _stats = new TreeMap<>();
+
+    /** Modification time of the index file when it was read, in
+     *  nanoseconds.  Cached entries at least this recent are racy. */
+    private long _timestamp;
+
+    /** True iff this staging area differs from its file. */
+    private boolean _changed;
+}
@@ -0,0 +1,237 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The repository layout of the first version of gitlet, and its upgrade
+ *  to the current one.  That version kept every blob as a plain file
+ *  named by its hash in the blobs folder, every commit as a
+ *  Java-serialized Commit (which embedded its parents, and so its whole
+ *  history) in the commits folder, the branch pointers as a serialized
+ *  Pointers in that same folder, and each staged file as a serialized
+ *  Addition or Removal in the staging_area folder.  The classes below
+ *  have the names, fields and serialVersionUIDs of those, so that their
+ *  files can still be read.
+ *
+ *  The upgrade stores the blobs and commits anew, in shards and in the
+ *  current forms, and writes the pointers and index files.  A commit's
+ *  id is the hash of its stored form, so the commits get new ids; their
+ *  messages, times, files and parents are kept.  The old files are
+ *  removed only once the store has recorded its new layout, so that an
+ *  upgrade that is interrupted before then is done again the next time
+ *  the repository is opened.
+ *  @author Stephen Ip
+ */
+class Legacy {
+
+    /** Return true iff the repository whose .gitlet directory is
+     *  GITLETDIR has the layout of the first version of gitlet. */
+    static boolean isLegacy(File gitletDir) {
+        return Utils.join(gitletDir, "commits", "pointers").isFile();
+    }
+
+    /** Store the blobs and commits of the repository whose .gitlet
+     *  directory is GITLETDIR, which has the layout of the first version
+     *  of gitlet, in STORE, and write its pointers and index files.  The
+     *  old files are left for remove. */
+    static void upgrade(File gitletDir, ObjectStore store) {
+        File blobFolder = Utils.join(gitletDir, "blobs");
+        for (String blob : filesIn(blobFolder)) {
+            store.write(ObjectStore.BLOB, blob,
+                        Utils.join(blobFolder, blob), null);
+        }
+        File commitFolder = Utils.join(gitletDir, "commits");
+        HashMap<String, String> ids = new HashMap<>();
+        for (String commit : filesIn(commitFolder)) {
+            if (!commit.equals("pointers")) {
+                upgrade(commit, commitFolder, store, ids);
+            }
+        }
+
+        Pointers old = read(Utils.join(commitFolder, "pointers"),
+                            Pointers.class);
+        gitlet.Pointers pointers =
+            new gitlet.Pointers(Utils.join(gitletDir, "pointers"));
+        for (Map.Entry<String, Commit> pointer : old._pointers.entrySet()) {
+            pointers.setPointer(pointer.getKey(),
+                                ids.get(pointer.getValue()._hash));
+        }
+        pointers.setHead(old._head);
+        Index index = new Index(Utils.join(gitletDir, "index"));
+        File additions = Utils.join(gitletDir, "staging_area", "addition");
+        for (String name : filesIn(additions)) {
+            Addition addition =
+                read(Utils.join(additions, name), Addition.class);
+            index.stageAddition(addition._fileName, addition._blobName);
+        }
+        File removals = Utils.join(gitletDir, "staging_area", "removal");
+        for (String name : filesIn(removals)) {
+            Removal removal = read(Utils.join(removals, name), Removal.class);
+            index.stageRemoval(removal._fileName, removal._blobName);
+        }
+        index.write();
+    }
+
+    /** Remove the files of the first version of gitlet from GITLETDIR,
+     *  once upgrade has been done and the layout of the store
+     *  recorded. */
+    static void remove(File gitletDir) {
+        for (String folder : List.of("blobs", "commits", "staging_area")) {
+            File dir = Utils.join(gitletDir, folder);
+            for (String name : filesIn(dir)) {
+                Utils.join(dir, name).delete();
+            }
+        }
+        for (String folder : List.of("addition", "removal")) {
+            File dir = Utils.join(gitletDir, "staging_area", folder);
+            for (String name : filesIn(dir)) {
+                Utils.join(dir, name).delete();
+            }
+            dir.delete();
+        }
+        Utils.join(gitletDir, "staging_area").delete();
+    }
+
+    /** Return the names of the plain files in FOLDER, which are none if
+     *  there is no FOLDER. */
+    private static List<String> filesIn(File folder) {
+        List<String> names = Utils.plainFilenamesIn(folder);
+        return names == null ? List.of() : names;
+    }
+
+    /** Store the commit named HASH in COMMITFOLDER, and the commits it
+     *  descends from, in STORE in the current form, unless IDS, which
+     *  maps the hashes of the commits stored so far to their new ids, has
+     *  it.  Returns its new id.  Each commit is read from its own file:
+     *  the copies of its ancestors that a commit holds may show files
+     *  that the first version added to them after they were made. */
+    private static String upgrade(String hash, File commitFolder,
+                                  ObjectStore store,
+                                  HashMap<String, String> ids) {
+        String id = ids.get(hash);
+        if (id == null) {
+            Commit commit = read(Utils.join(commitFolder, hash),
+                                 Commit.class);
+            String parent = commit._parent == null ? null
+                : upgrade(commit._parent._hash, commitFolder, store, ids);
+            String branchParent = commit._branchParent == null ? null
+                : upgrade(commit._branchParent._hash, commitFolder, store,
+                          ids);
+            String tree = Tree.update(store, null,
+                    commit._filesTracking == null
+                    ? new HashMap<>() : commit._filesTracking);
+            id = gitlet.Commit.write(store, commit._logMessage,
+                    commit._timestamp, tree, parent, branchParent);
+            ids.put(hash, id);
+        }
+        return id;
+    }
+
+    /** Return the object of class TYPE, one of the classes below,
+     *  serialized in FILE under the name of the class it stands for. */
+    private static <T> T read(File file, Class<T> type) {
+        try (ObjectInputStream in = new ObjectInputStream(
+                 new ByteArrayInputStream(Utils.readContents(file))) {
+                @Override
+                protected ObjectStreamClass readClassDescriptor()
+                    throws IOException, ClassNotFoundException {
+                    ObjectStreamClass desc = super.readClassDescriptor();
+                    Class<?> local = CLASSES.get(desc.getName());
+                    if (local == null) {
+                        return desc;
+                    }
+                    ObjectStreamClass localDesc =
+                        ObjectStreamClass.lookup(local);
+                    if (localDesc.getSerialVersionUID()
+                        != desc.getSerialVersionUID()) {
+                        throw new InvalidClassException(desc.getName(),
+                                "not written by the first gitlet");
+                    }
+                    return localDesc;
+                }
+            }) {
+            return type.cast(in.readObject());
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(file + ": "
+                                               + excp.getMessage());
+        }
+    }
+
+    /** A commit of the first version of gitlet. */
+    private static class Commit implements Serializable {
+        /** The serialVersionUID of that version's gitlet.Commit. */
+        private static final long serialVersionUID = -6678040352499188540L;
+
+        /** The commit object's hash (filename). */
+        private String _hash;
+
+        /** The commit log message. */
+        private String _logMessage;
+
+        /** The time the commit was made. */
+        private Date _timestamp;
+
+        /** The files that are being tracked in this commit, or null in
+         *  the initial commit. */
+        private HashMap<String, String> _filesTracking;
+
+        /** The (first) parent commit object of this commit. */
+        private Commit _parent;
+
+        /** The branch parent commit object of this commit. */
+        private Commit _branchParent;
+    }
+
+    /** The branch pointers of the first version of gitlet. */
+    private static class Pointers implements Serializable {
+        /** The serialVersionUID of that version's gitlet.Pointers. */
+        private static final long serialVersionUID = 2103069357106648845L;
+
+        /** A mapping of branch names to commit objects. */
+        private HashMap<String, Commit> _pointers;
+
+        /** The name of the pointer that is currently the head. */
+        private String _head;
+    }
+
+    /** A file staged for addition in the first version of gitlet. */
+    private static class Addition implements Serializable {
+        /** The serialVersionUID of that version's gitlet.Addition. */
+        private static final long serialVersionUID = 1661256355448892329L;
+
+        /** Addition object's file name. */
+        private String _fileName;
+
+        /** Addition object's blob name. */
+        private String _blobName;
+    }
+
+    /** A file staged for removal in the first version of gitlet. */
+    private static class Removal implements Serializable {
+        /** The serialVersionUID of that version's gitlet.Removal. */
+        private static final long serialVersionUID = -5424537003545824649L;
+
+        /** Removal object's file name. */
+        private String _fileName;
+
+        /** Removal object's blob name. */
+        private String _blobName;
+    }
+
+    /** The classes above, by the names of the classes they stand for. */
+    private static final Map<String, Class<?>> CLASSES = Map.of(
+        "gitlet.Commit", Commit.class,
+        "gitlet.Pointers", Pointers.class,
+        "gitlet.Addition", Addition.class,
+        "gitlet.Removal", Removal.class);
+}
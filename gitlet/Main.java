@@ -1,20 +1,25 @@
 package gitlet;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.Objects;
 import java.util.Map;
+import java.util.ArrayDeque;
 import java.util.HashMap;
-import java.util.TreeMap;
-import java.util.ArrayList;
-import java.util.Set;
 import java.util.HashSet;
-import java.util.Stack;
-import java.util.Queue;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Stephen Ip
@@ -26,27 +31,56 @@ public class Main {
     /** Main metadata folder. */
     static final File GITLET_FOLDER = new File(".gitlet");
 
-    /** Blobs folder. */
-    static final File BLOB_FOLDER = Utils.join(GITLET_FOLDER, "blobs");
+    /** Branch pointers file. */
+    static final File POINTERS_FILE = Utils.join(GITLET_FOLDER, "pointers");
 
-    /** Commits folder. */
-    static final File COMMIT_FOLDER = Utils.join(GITLET_FOLDER, "commits");
+    /** Repository settings file. */
+    static final File CONFIG_FILE = Utils.join(GITLET_FOLDER, "config");
 
-    /** Staging area folder. */
-    static final File STAGING_AREA_FOLDER = Utils.join(GITLET_FOLDER,
-            "staging_area");
+    /** Staging area index file. */
+    static final File INDEX_FILE = Utils.join(GITLET_FOLDER, "index");
 
-    /** Addition folder. */
-    static final File ADDITION_FOLDER = Utils.join(STAGING_AREA_FOLDER,
-            "addition");
+    /** Error message for an abbreviated id that names several commits. */
+    private static final String AMBIGUOUS_ID =
+        "That id prefix names more than one commit.";
 
-    /** Removal folder. */
-    static final File REMOVAL_FOLDER = Utils.join(STAGING_AREA_FOLDER,
-            "removal");
+    /** Shortest commit id prefix that merge takes in place of a branch
+     *  name, so that a misspelt branch name is not taken for one. */
+    private static final int MIN_MERGE_PREFIX = 4;
+
+    /** Prefix of the init option that selects the hash algorithm. */
+    private static final String OBJECT_FORMAT = "--object-format=";
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+     *  <COMMAND> <OPERAND> ....  If a daemon is running in the current
+     *  repository, the command is run there (see Daemon). */
     public static void main(String... args) throws IOException {
+        if (args.length > 0 && !args[0].equals("daemon")
+            && !args[0].equals("serve") && !args[0].equals("batch")) {
+            int status = Daemon.forward(args);
+            if (status > 0) {
+                System.exit(status);
+            } else if (status == 0) {
+                return;
+            }
+        }
+        run(args);
+    }
+
+    /** Run the command ARGS in this process.  Returns false if it ended
+     *  early with an error. */
+    static boolean run(String... args) throws IOException {
+        try {
+            dispatch(args);
+            return true;
+        } catch (Exit excp) {
+            return false;
+        }
+    }
+
+    /** Run the command ARGS, writing back the staging area and the
+     *  commit graph if it completes, unless in a batch. */
+    private static void dispatch(String... args) throws IOException {
         if (args.length == 0) {
             exitWithError("Please enter a command.");
         }
@@ -69,24 +103,54 @@ public class Main {
         case "push" -> push(args);
         case "fetch" -> fetch(args);
         case "pull" -> pull(args);
+        case "repack" -> repack(args);
+        case "config" -> config(args);
+        case "serve" -> serve(args);
+        case "daemon" -> daemon(args);
+        case "batch" -> batch(args);
         default -> exitWithError("No command with that name exists.");
         }
+        if (!_batch) {
+            flush();
+        }
     }
 
+    /** Write back the staging area and the commit graph, if they have
+     *  been read. */
+    private static void flush() {
+        if (_index != null) {
+            _index.write();
+        }
+        if (_graph != null) {
+            _graph.save();
+        }
+    }
+
+    /** Create a repository in the current directory.  ARGS may name the
+     *  hash algorithm of its objects as --object-format=sha1 (the
+     *  default) or --object-format=sha256. */
     public static void setupPersistence(String[] args) {
-        validateNumArgs(args, 1);
+        String algorithm = null;
+        if (args.length == 2 && args[1].startsWith(OBJECT_FORMAT)) {
+            algorithm = args[1].substring(OBJECT_FORMAT.length());
+            if (!algorithm.equals("sha1") && !algorithm.equals("sha256")) {
+                exitWithError("Object format must be sha1 or sha256.");
+            }
+        } else {
+            validateNumArgs(args, 1);
+        }
         if (GITLET_FOLDER.exists()) {
             exitWithError("A Gitlet version-control system already exists "
                     + "in the current directory.");
         }
         GITLET_FOLDER.mkdir();
-        STAGING_AREA_FOLDER.mkdir();
-        ADDITION_FOLDER.mkdir();
-        REMOVAL_FOLDER.mkdir();
-        COMMIT_FOLDER.mkdir();
-        BLOB_FOLDER.mkdir();
-        new Pointers();
+        if (algorithm != null) {
+            Config.read(CONFIG_FILE).set(Config.HASH_ALGORITHM, algorithm);
+        }
+        getObjects().init();
+        _pointers = new Pointers(POINTERS_FILE);
         new Remotes();
+        _messages = MessageIndex.build(GITLET_FOLDER, getObjects());
         new Commit("initial commit",
                 null,
                 null,
@@ -94,45 +158,78 @@ public class Main {
                 null);
     }
 
+    /** Stage the files named in ARGS for addition.  A directory stands
+     *  for all the files below it.  Files are hashed, and new blobs
+     *  written, in parallel; the index is updated once all are stored. */
     public static void add(String[] args) {
         validateGitletDir();
-        validateNumArgs(args, 2);
-        String fileName = args[1];
-        File addFile = Utils.join(CWD, fileName);
-        if (!addFile.exists()) {
-            exitWithError("File does not exist.");
+        if (args.length < 2) {
+            validateNumArgs(args, 2);
+        }
+        TreeMap<String, File> addFiles = new TreeMap<>();
+        for (int i = 1; i < args.length; i += 1) {
+            File addFile = Utils.join(CWD, args[i]);
+            if (!addFile.exists()) {
+                exitWithError("File does not exist.");
+            }
+            collectFiles(args[i], addFile, addFiles);
+        }
+        Index index = getIndex();
+        TreeMap<String, String> blobs = index.blobsOf(addFiles);
+        HashMap<String, String> headFiles = new HashMap<>();
+        for (String fileName : blobs.keySet()) {
+            headFiles.put(fileName, headBlobOf(fileName));
+        }
+        TreeMap<String, String> newBlobs = new TreeMap<>();
+        for (Map.Entry<String, String> entry : blobs.entrySet()) {
+            String fileName = entry.getKey();
+            String sha1hash = entry.getValue();
+            if (!Objects.equals(headFiles.get(fileName), sha1hash)
+                    && !Objects.equals(index.getAddition(fileName), sha1hash)
+                    && !getObjects().contains(ObjectStore.BLOB, sha1hash)) {
+                newBlobs.putIfAbsent(sha1hash, fileName);
+            }
         }
-        byte[] blob = Utils.readContents(addFile);
-        String sha1hash = Utils.sha1(blob);
-        Commit headCommit = getHeadCommit();
-        if (headCommit.getFilesTracked() != null
-                && headCommit.getFilesTracked().containsKey(fileName)) {
-            if (Objects.equals(headCommit
-                    .getFilesTracked()
-                    .get(fileName), sha1hash)) {
-                for (String file : Utils.plainFilenamesIn(ADDITION_FOLDER)) {
-                    File additionFile = Utils.join(ADDITION_FOLDER, file);
-                    Addition addition = Utils.readObject(additionFile,
-                            Addition.class);
-                    if (Objects.equals(addition.getFileName(), fileName)) {
-                        Utils.join(ADDITION_FOLDER, file).delete();
-                    }
-                }
-                for (String removalFileName
-                        : Utils.plainFilenamesIn(REMOVAL_FOLDER)) {
-                    File removalFile = Utils.join(REMOVAL_FOLDER,
-                            removalFileName);
-                    Removal removal = Utils.readObject(removalFile,
-                            Removal.class);
-                    if (Objects.equals(removal.getBlobName(), sha1hash)) {
-                        removalFile.delete();
-                    }
-                }
-                return;
+        ObjectStore objects = getObjects();
+        newBlobs.entrySet().parallelStream().forEach(entry ->
+                objects.write(ObjectStore.BLOB, entry.getKey(),
+                        addFiles.get(entry.getValue()),
+                        headFiles.get(entry.getValue())));
+        for (Map.Entry<String, String> entry : blobs.entrySet()) {
+            String fileName = entry.getKey();
+            String sha1hash = entry.getValue();
+            if (Objects.equals(headFiles.get(fileName), sha1hash)) {
+                index.unstage(fileName);
+            } else if (!Objects.equals(index.getAddition(fileName),
+                    sha1hash)) {
+                index.stageAddition(fileName, sha1hash);
             }
         }
-        Utils.writeContents(Utils.join(BLOB_FOLDER, sha1hash), blob);
-        new Addition(fileName, sha1hash);
+    }
+
+    /** Add FILE, named NAME, to FILES, mapped from its name relative to
+     *  the working directory, or if FILE is a directory, add all files
+     *  below it other than those of the repository itself. */
+    private static void collectFiles(String name, File file,
+                                     Map<String, File> files) {
+        Path root = CWD.toPath().toAbsolutePath().normalize();
+        Path gitlet = GITLET_FOLDER.toPath().toAbsolutePath().normalize();
+        if (!file.isDirectory()) {
+            files.put(name, file);
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(file.toPath())) {
+            paths.filter(Files::isRegularFile).forEach(path -> {
+                Path absolute = path.toAbsolutePath().normalize();
+                if (!absolute.startsWith(gitlet)) {
+                    files.put(root.relativize(absolute).toString()
+                            .replace(File.separatorChar, '/'),
+                            path.toFile());
+                }
+            });
+        } catch (IOException excp) {
+            exitWithError(excp.getMessage());
+        }
     }
 
     public static void commit(String[] args) {
@@ -142,27 +239,15 @@ public class Main {
         if (commitMessage == null || commitMessage.equals("")) {
             exitWithError("Please enter a commit message.");
         }
-        HashMap<String, String> filesTracking = new HashMap<>();
-        HashMap<String, String> filesRemoveTracking = new HashMap<>();
-        for (String fileName : Utils.plainFilenamesIn(ADDITION_FOLDER)) {
-            File addFile = Utils.join(ADDITION_FOLDER, fileName);
-            Addition addObject = Utils.readObject(addFile, Addition.class);
-            filesTracking.put(addObject.getFileName(),
-                    addObject.getBlobName());
-            addFile.delete();
-        }
-        for (String fileName : Utils.plainFilenamesIn(REMOVAL_FOLDER)) {
-            File removeFile = Utils.join(REMOVAL_FOLDER, fileName);
-            Removal removeObject = Utils.readObject(removeFile,
-                    Removal.class);
-            filesRemoveTracking.put(
-                    removeObject.getFileName(),
-                    removeObject.getBlobName());
-            removeFile.delete();
-        }
-        if (filesTracking.isEmpty() && filesRemoveTracking.isEmpty()) {
+        Index index = getIndex();
+        if (index.isEmpty()) {
             exitWithError("No changes added to the commit.");
         }
+        HashMap<String, String> filesTracking =
+                new HashMap<>(index.getAdditions());
+        HashMap<String, String> filesRemoveTracking =
+                new HashMap<>(index.getRemovals());
+        index.clear();
         Commit oldHead = getHeadCommit();
         new Commit(commitMessage,
                 filesTracking,
@@ -178,23 +263,16 @@ public class Main {
         File rmFile = Utils.join(CWD, fileName);
         boolean staged = false;
         boolean tracked = false;
-        for (String fn : Utils.plainFilenamesIn(Utils.join(ADDITION_FOLDER))) {
-            File additionFile = Utils.join(ADDITION_FOLDER, fn);
-            Addition addition = Utils.readObject(additionFile, Addition.class);
-            String additionFileName = addition.getFileName();
-            if (Objects.equals(additionFileName, fileName)) {
-                staged = true;
-                additionFile.delete();
-            }
+        if (getIndex().isStagedAdd(fileName)) {
+            staged = true;
+            getIndex().unstage(fileName);
         }
-        Commit currCommit = getHeadCommit();
-        if (currCommit.getFilesTracked() != null) {
-            if (currCommit.getFilesTracked().get(fileName) != null) {
-                tracked = true;
-                new Removal(fileName,
-                        currCommit.getFilesTracked().get(fileName));
-                rmFile.delete();
-            }
+        String blobName = headBlobOf(fileName);
+        if (blobName != null) {
+            tracked = true;
+            getIndex().stageRemoval(fileName, blobName);
+            rmFile.delete();
+            getIndex().forgetStat(fileName);
         }
         if (!staged && !tracked) {
             exitWithError("No reason to remove the file.");
@@ -216,44 +294,26 @@ public class Main {
         validateNumArgs(args, 3);
         String fileName = args[2];
         File checkoutFile = Utils.join(CWD, fileName);
-        Commit headCommit = getHeadCommit();
-        HashMap<String, String> filesTracked = headCommit.getFilesTracked();
-        if (filesTracked == null || filesTracked.get(fileName) == null) {
+        String commitBlobName = headBlobOf(fileName);
+        if (commitBlobName == null) {
             exitWithError("File does not exist in that commit.");
         }
-        String commitBlobName = filesTracked.get(fileName);
-        File blobFile = Utils.join(BLOB_FOLDER, commitBlobName);
-        byte[] commitBlob = Utils.readContents(blobFile);
-        Utils.writeContents(checkoutFile, commitBlob);
+        writeBlob(commitBlobName, checkoutFile);
+        getIndex().recordStat(fileName, checkoutFile, commitBlobName);
     }
 
     public static void checkoutFileCommit(String[] args) {
         validateNumArgs(args, 4);
-        String commitId = args[1];
         String fileName = args[3];
         File checkoutFile = Utils.join(CWD, fileName);
-        for (String commitFileName
-                : Utils.plainFilenamesIn(COMMIT_FOLDER)) {
-            if (Objects.equals(commitFileName, commitId)
-                    || commitFileName.startsWith(commitId)) {
-                File commitFile = Utils.join(COMMIT_FOLDER, commitFileName);
-                Commit commitObj = Utils.readObject(commitFile,
-                        Commit.class);
-                HashMap<String, String> filesTracked =
-                        commitObj.getFilesTracked();
-                if (filesTracked == null
-                        || filesTracked.get(fileName) == null) {
-                    exitWithError("File does not exist in that commit.");
-                }
-                String commitBlobName = filesTracked.get(fileName);
-                File commitBlobFile = Utils.join(BLOB_FOLDER,
-                        commitBlobName);
-                byte[] commitBlob = Utils.readContents(commitBlobFile);
-                Utils.writeContents(checkoutFile, commitBlob);
-                return;
-            }
+        Commit commitObj = resolveCommit(args[1]);
+        String commitBlobName = Tree.find(getObjects(),
+                commitObj.getTreeId(), fileName);
+        if (commitBlobName == null) {
+            exitWithError("File does not exist in that commit.");
         }
-        exitWithError("No commit with that id exists.");
+        writeBlob(commitBlobName, checkoutFile);
+        getIndex().recordStat(fileName, checkoutFile, commitBlobName);
     }
 
     public static void checkoutBranch(String[] args) {
@@ -268,35 +328,11 @@ public class Main {
         } else if (Objects.equals(branchCommit.getHash(),
                 getHeadCommit().getHash())) {
             pointers.setHead(branchName);
-            clearAdditionArea();
-            clearRemovalArea();
+            getIndex().clear();
             return;
         }
-        Commit currCommit = getHeadCommit();
-        if (branchCommit.getFilesTracked() != null) {
-            untrackedFileCheck(branchCommit);
-            for (Map.Entry<String, String> entry
-                    : branchCommit.getFilesTracked().entrySet()) {
-                String trackedFileName = entry.getKey();
-                String blobName = entry.getValue();
-                File branchFile = Utils.join(CWD, trackedFileName);
-                File blobFile = Utils.join(BLOB_FOLDER, blobName);
-                byte[] branchFileData = Utils.readContents(blobFile);
-                Utils.writeContents(branchFile, branchFileData);
-            }
-        }
+        checkoutCommit(branchCommit);
         pointers.setHead(branchName);
-        for (Map.Entry<String, String> entry
-                : currCommit.getFilesTracked().entrySet()) {
-            String trackedFileName = entry.getKey();
-            if (branchCommit.getFilesTracked() == null
-                    || branchCommit.getFilesTracked()
-                    .get(trackedFileName) == null) {
-                Utils.join(CWD, trackedFileName).delete();
-            }
-        }
-        clearAdditionArea();
-        clearRemovalArea();
     }
 
     public static void log(String[] args) {
@@ -321,38 +357,36 @@ public class Main {
         validateNumArgs(args, 1);
         SimpleDateFormat simpleDateFormat =
                 new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
-        for (String fileName : Utils.plainFilenamesIn(COMMIT_FOLDER)) {
-            if (!Objects.equals(fileName, "pointers")) {
-                File commitFile = Utils.join(COMMIT_FOLDER, fileName);
-                Commit commit = Utils.readObject(commitFile, Commit.class);
-                System.out.println("===");
-                System.out.println("commit " + commit.getHash());
-                System.out.println("Date: " + simpleDateFormat
-                        .format(commit.getTimeStamp()));
-                System.out.println(commit.getLogMessage());
-                System.out.println();
-            }
+        for (String fileName : getObjects().list(ObjectStore.COMMIT)) {
+            Commit commit = Commit.load(fileName);
+            System.out.println("===");
+            System.out.println("commit " + commit.getHash());
+            System.out.println("Date: " + simpleDateFormat
+                    .format(commit.getTimeStamp()));
+            System.out.println(commit.getLogMessage());
+            System.out.println();
         }
     }
 
+    /** Print the ids of the commits whose message is ARGS[1].  With the
+     *  option --grep, print those whose message contains ARGS[2]; with
+     *  --words, those whose message contains every word of ARGS[2],
+     *  ignoring case.  Commits are looked up in the message index. */
     public static void find(String[] args) {
         validateGitletDir();
-        validateNumArgs(args, 2);
-        String commitMessage = args[1];
-        boolean found = false;
-        for (String fileName : Utils.plainFilenamesIn(COMMIT_FOLDER)) {
-            if (!Objects.equals(fileName, "pointers")) {
-                File commitFile = Utils.join(COMMIT_FOLDER, fileName);
-                Commit commit = Utils.readObject(commitFile,
-                        Commit.class);
-                if (Objects.equals(commit.getLogMessage(),
-                        commitMessage)) {
-                    System.out.println(commit.getHash());
-                    found = true;
-                }
-            }
+        List<String> found;
+        if (args.length == 3 && args[1].equals("--grep")) {
+            found = getMessages().containing(args[2]);
+        } else if (args.length == 3 && args[1].equals("--words")) {
+            found = getMessages().withWords(args[2]);
+        } else {
+            validateNumArgs(args, 2);
+            found = getMessages().withMessage(args[1]);
+        }
+        for (String id : found) {
+            System.out.println(id);
         }
-        if (!found) {
+        if (found.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
@@ -363,30 +397,20 @@ public class Main {
         Pointers pointers = getPointers();
         System.out.println("=== Branches ===");
         System.out.println("*" + pointers.getHead());
-        TreeMap<String, Commit> sortedPointers =
-                new TreeMap<>(pointers.getPointers());
-        for (Map.Entry<String, Commit> entry
-                : sortedPointers.entrySet()) {
-            String pointerName = entry.getKey();
+        for (String pointerName : pointers.getPointers().keySet()) {
             if (!Objects.equals(pointerName, pointers.getHead())) {
                 System.out.println(pointerName);
             }
         }
         System.out.println();
         System.out.println("=== Staged Files ===");
-        for (String fn : Utils.plainFilenamesIn(ADDITION_FOLDER)) {
-            File additionFile = Utils.join(ADDITION_FOLDER, fn);
-            Addition additionObj = Utils.readObject(additionFile,
-                    Addition.class);
-            System.out.println(additionObj.getFileName());
+        for (String fn : getIndex().getAdditions().keySet()) {
+            System.out.println(fn);
         }
         System.out.println();
         System.out.println("=== Removed Files ===");
-        for (String fn : Utils.plainFilenamesIn(REMOVAL_FOLDER)) {
-            File removalFile = Utils.join(REMOVAL_FOLDER, fn);
-            Removal removalObj = Utils.readObject(removalFile,
-                    Removal.class);
-            System.out.println(removalObj.getFileName());
+        for (String fn : getIndex().getRemovals().keySet()) {
+            System.out.println(fn);
         }
         System.out.println();
         System.out.println("=== Modifications Not Staged For Commit ===");
@@ -411,47 +435,10 @@ public class Main {
     public static void reset(String[] args) {
         validateGitletDir();
         validateNumArgs(args, 2);
-        String commitId = args[1];
-        Commit resetCommit = null;
-        for (String commitHash : Utils.plainFilenamesIn(COMMIT_FOLDER)) {
-            if (!Objects.equals(commitHash, "pointers")) {
-                if (Objects.equals(commitHash, commitId)) {
-                    File commitFile = Utils.join(COMMIT_FOLDER, commitHash);
-                    resetCommit = Utils.readObject(commitFile, Commit.class);
-                }
-            }
-        }
-        if (resetCommit == null) {
-            exitWithError("No commit with that id exists.");
-        }
-        HashMap<String, String> filesTrackedReset = resetCommit
-                .getFilesTracked();
-        if (filesTrackedReset != null) {
-            untrackedFileCheck(resetCommit);
-            for (Map.Entry<String, String> entry
-                    : filesTrackedReset.entrySet()) {
-                String fileName = entry.getKey();
-                String blobName = entry.getValue();
-                File blobFile = Utils.join(BLOB_FOLDER, blobName);
-                File cwdFile = Utils.join(CWD, fileName);
-                Utils.writeContents(cwdFile, Utils.readContents(blobFile));
-            }
-        }
-        Commit currCommit = getHeadCommit();
-        HashMap<String, String> filesTracked = currCommit.getFilesTracked();
-        if (filesTracked != null) {
-            for (Map.Entry<String, String> entry : filesTracked.entrySet()) {
-                String fileName = entry.getKey();
-                if (filesTrackedReset == null
-                        || !filesTrackedReset.containsKey(fileName)) {
-                    Utils.join(CWD, fileName).delete();
-                }
-            }
-        }
-        clearAdditionArea();
-        clearRemovalArea();
+        Commit resetCommit = resolveCommit(args[1]);
+        checkoutCommit(resetCommit);
         Pointers pointers = getPointers();
-        pointers.setPointer(pointers.getHead(), resetCommit);
+        pointers.setPointer(pointers.getHead(), resetCommit.getHash());
     }
 
     public static void branch(String[] args) {
@@ -459,10 +446,10 @@ public class Main {
         validateNumArgs(args, 2);
         String branchName = args[1];
         Pointers pointers = getPointers();
-        if (pointers.getCommit(branchName) != null) {
+        if (pointers.getCommitId(branchName) != null) {
             exitWithError("A branch with that name already exists.");
         }
-        pointers.setPointer(branchName, getHeadCommit());
+        pointers.setPointer(branchName, pointers.getHeadCommitId());
     }
 
     public static void rmBranch(String[] args) {
@@ -470,7 +457,7 @@ public class Main {
         validateNumArgs(args, 2);
         Pointers pointers = getPointers();
         String branchName = args[1];
-        if (pointers.getCommit(branchName) == null) {
+        if (pointers.getCommitId(branchName) == null) {
             exitWithError("A branch with that name does not exist.");
         } else if (Objects.equals(pointers.getHead(), branchName)) {
             exitWithError("Cannot remove the current branch.");
@@ -483,22 +470,33 @@ public class Main {
         validateNumArgs(args, 2);
         String branchName = args[1];
         Commit branchCommit = getPointers().getCommit(branchName);
+        if (branchCommit == null && branchName.length() >= MIN_MERGE_PREFIX) {
+            List<String> ids = getObjects().findCommits(branchName, 2);
+            if (ids.size() > 1) {
+                exitWithError(AMBIGUOUS_ID);
+            } else if (ids.size() == 1) {
+                branchCommit = Commit.load(ids.get(0));
+            }
+        }
         preMergeCheck(branchCommit, branchName);
         Commit headCommit = getHeadCommit();
         Commit splitPoint = findSplitPoint(headCommit, branchCommit);
         if (!preMergeCheck2(headCommit, branchCommit, branchName, splitPoint)) {
             return;
         }
-        ArrayList<String> allFilesMerge = getAllMergeFiles(headCommit,
-                branchCommit, splitPoint);
-        untrackedFileCheck(branchCommit);
+        TreeMap<String, String[]> allFilesMerge = getAllMergeFiles(
+                headCommit, branchCommit, splitPoint);
+        untrackedFileCheck(Tree.diff(getObjects(), headCommit.getTreeId(),
+                branchCommit.getTreeId()));
         boolean mergeConflict = false;
-        for (String file : allFilesMerge) {
+        TreeMap<String, String> mergeAdditions = new TreeMap<>();
+        for (Map.Entry<String, String[]> blobs : allFilesMerge.entrySet()) {
+            String file = blobs.getKey();
+            boolean fileConflict = false;
             String result = null;
-            String contentsSplit = splitPoint.getFilesTracked() != null
-                    ? splitPoint.getFilesTracked().get(file) : null;
-            String contentsHead = headCommit.getFilesTracked().get(file);
-            String contentsOther = branchCommit.getFilesTracked().get(file);
+            String contentsSplit = blobs.getValue()[0];
+            String contentsHead = blobs.getValue()[1];
+            String contentsOther = blobs.getValue()[2];
             boolean modifiedInOther = !Objects.equals(contentsOther,
                     contentsSplit);
             boolean modifiedInHead = !Objects.equals(contentsHead,
@@ -519,20 +517,21 @@ public class Main {
                 if (Objects.equals(contentsHead, contentsOther)) {
                     result = contentsOther;
                 } else {
+                    fileConflict = true;
                     mergeConflict = true;
                 }
             }
-            if (mergeConflict) {
+            if (fileConflict) {
                 handleMergeConflict(contentsHead, contentsOther, file);
             } else if (!Objects.equals(contentsHead, result)) {
-                File headFile = Utils.join(CWD, file);
                 if (result == null) {
-                    handleMergeRemoval(file, headFile);
+                    handleMergeRemoval(file, contentsHead);
                 } else {
-                    handleMergeAddition(file, headFile, result);
+                    mergeAdditions.put(file, result);
                 }
             }
         }
+        handleMergeAdditions(mergeAdditions);
         mergeCommit(branchCommit, branchName, headCommit, mergeConflict);
     }
 
@@ -545,7 +544,8 @@ public class Main {
         if (remotes.getRemotes().containsKey(remoteName)) {
             exitWithError("A remote with that name already exists.");
         }
-        remotes.setRemote(remoteName, remoteDir.replace("/", File.separator));
+        remotes.setRemote(remoteName, Client.isUrl(remoteDir) ? remoteDir
+                          : remoteDir.replace("/", File.separator));
     }
 
     public static void rmRemote(String[] args) {
@@ -559,44 +559,78 @@ public class Main {
         remotes.rmRemote(remoteName);
     }
 
+    /** Push the current branch to the branch ARGS[2] of the remote
+     *  ARGS[1], creating the branch if the remote lacks it.  The remote
+     *  branch must be an ancestor of the current head.  The remote's
+     *  branch tips that are also local commits are known to be complete
+     *  there, so only the objects reachable from the current head and
+     *  from none of them are copied.  The remote's pointers are updated
+     *  last, in one atomic write, once every object is in place. */
     public static void push(String[] args) throws IOException {
         validateGitletDir();
         validateNumArgs(args, 3);
         String remoteName = args[1];
         String remoteBranchName = args[2];
-        Remotes remotes = getRemotes();
-        File remoteDir = remotes.getDirectory(remoteName);
+        String location = getRemotes().getLocation(remoteName);
+        if (location != null && Client.isUrl(location)) {
+            pushTo(location, remoteBranchName);
+            return;
+        }
+        File remoteDir = location == null ? null : new File(location);
         if (remoteDir == null || !remoteDir.exists()) {
             exitWithError("Remote directory not found.");
         }
-        File remoteBlobsFile = Utils.join(remoteDir, "blobs");
-        File remoteCommitsFile = Utils.join(remoteDir, "commits");
-        File remotePointersFile = Utils.join(remoteCommitsFile, "pointers");
-        Pointers remotePointers = Utils.readObject(remotePointersFile,
-                Pointers.class);
-        Commit remoteHeadBranch = remotePointers.getCommit(remoteBranchName);
-        if (remoteHeadBranch == null) {
+        ObjectStore remoteObjects = ObjectStore.open(remoteDir);
+        try {
+            File remotePointersFile = Utils.join(remoteDir, "pointers");
+            Pointers remotePointers = Pointers.read(remotePointersFile);
+            Reachability.ObjectSet missing =
+                pushObjects(remotePointers.getPointers(), remoteBranchName);
+            copyObjects(remoteObjects, getObjects(), missing,
+                    MessageIndex.read(remoteDir, remoteObjects));
             remotePointers.setPointer(remoteBranchName,
-                    remotePointers.getHeadCommit());
+                    getPointers().getHeadCommitId());
+        } finally {
+            close(remoteObjects);
         }
-        Commit localHeadBranch = getHeadCommit();
-        Set<String> localHeadHistory = getAncestors(localHeadBranch);
-        if (!localHeadHistory.contains(remoteHeadBranch.getHash())) {
-            exitWithError("Please pull down remote changes before pushing.");
+    }
+
+    /** Push the current branch to the branch REMOTEBRANCHNAME of the
+     *  repository served at URL, as for push. */
+    private static void pushTo(String url, String remoteBranchName) {
+        try (Client client = new Client(url, getObjects().idLength())) {
+            Map<String, String> branches = client.branches();
+            client.push(remoteBranchName, branches.get(remoteBranchName),
+                        getPointers().getHeadCommitId(), getObjects(),
+                        pushObjects(branches, remoteBranchName));
+        } catch (GitletException excp) {
+            exitWithError(excp.getMessage());
         }
-        for (String fn : Utils.plainFilenamesIn(BLOB_FOLDER)) {
-            File localFile = Utils.join(BLOB_FOLDER, fn);
-            File remoteFile = Utils.join(remoteBlobsFile, fn);
-            Files.copy(localFile.toPath(), remoteFile.toPath(),
-                    StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Return the objects that a remote whose branches are BRANCHES needs
+     *  for its branch REMOTEBRANCHNAME to be moved to the current head,
+     *  having checked that the branch, if it exists, is an ancestor of
+     *  the head. */
+    private static Reachability.ObjectSet pushObjects(
+            Map<String, String> branches, String remoteBranchName) {
+        String localHeadId = getPointers().getHeadCommitId();
+        String remoteHeadId = branches.get(remoteBranchName);
+        CommitGraph graph = getGraph();
+        if (remoteHeadId != null
+                && (!getObjects().contains(ObjectStore.COMMIT, remoteHeadId)
+                || !graph.isAncestor(graph.position(remoteHeadId),
+                        graph.position(localHeadId)))) {
+            exitWithError("Please pull down remote changes before pushing.");
         }
-        for (String fn : Utils.plainFilenamesIn(COMMIT_FOLDER)) {
-            File localFile = Utils.join(COMMIT_FOLDER, fn);
-            File remoteFile = Utils.join(remoteCommitsFile, fn);
-            Files.copy(localFile.toPath(), remoteFile.toPath(),
-                    StandardCopyOption.REPLACE_EXISTING);
+        Reachability reach = new Reachability(getObjects(), graph);
+        Reachability.ObjectSet missing = reach.reachable(localHeadId);
+        for (String tip : new TreeSet<>(branches.values())) {
+            if (getObjects().contains(ObjectStore.COMMIT, tip)) {
+                missing = missing.without(reach.reachable(tip));
+            }
         }
-        remotePointers.setPointer(remotePointers.getHead(), getHeadCommit());
+        return missing;
     }
 
     public static void fetch(String[] args) throws IOException {
@@ -604,38 +638,150 @@ public class Main {
         validateNumArgs(args, 3);
         String remoteName = args[1];
         String remoteBranchName = args[2];
-        Remotes remotes = getRemotes();
-        File remoteDir = remotes.getDirectory(remoteName);
+        String location = getRemotes().getLocation(remoteName);
+        if (location != null && Client.isUrl(location)) {
+            fetchFrom(location, remoteName, remoteBranchName);
+            return;
+        }
+        File remoteDir = location == null ? null : new File(location);
         if (remoteDir == null || !remoteDir.exists()) {
             exitWithError("Remote directory not found.");
         }
-        File remoteBlobsFile = Utils.join(remoteDir, "blobs");
-        File remoteCommitsFile = Utils.join(remoteDir, "commits");
-        File remotePointersFile = Utils.join(remoteCommitsFile, "pointers");
-        Pointers remotePointers = Utils.readObject(remotePointersFile,
-                Pointers.class);
-        if (!remotePointers.getPointers().containsKey(remoteBranchName)) {
-            exitWithError("That remote does not have that branch.");
-        }
-        Commit remoteBranch = remotePointers.getCommit(remoteBranchName);
-        Set<String> remoteBranchHistory = getAncestors(remoteBranch);
-        for (String commitHash : remoteBranchHistory) {
-            File commitFile = Utils.join(remoteCommitsFile, commitHash);
-            Commit commit = Utils.readObject(commitFile, Commit.class);
-            File localFileCommit = Utils.join(COMMIT_FOLDER, commitHash);
-            Files.copy(commitFile.toPath(), localFileCommit.toPath(),
-                    StandardCopyOption.REPLACE_EXISTING);
-            if (commit.getFilesTracked() != null) {
-                for (String blobName : commit.getFilesTracked().values()) {
-                    File blobFile = Utils.join(remoteBlobsFile, blobName);
-                    File localFileBlob = Utils.join(BLOB_FOLDER, blobName);
-                    Files.copy(blobFile.toPath(), localFileBlob.toPath(),
-                            StandardCopyOption.REPLACE_EXISTING);
+        ObjectStore remoteObjects = ObjectStore.open(remoteDir);
+        try {
+            File remotePointersFile = Utils.join(remoteDir, "pointers");
+            Pointers remotePointers = Pointers.read(remotePointersFile);
+            if (!remotePointers.getPointers()
+                    .containsKey(remoteBranchName)) {
+                exitWithError("That remote does not have that branch.");
+            }
+            String remoteBranch =
+                remotePointers.getCommitId(remoteBranchName);
+            ObjectStore objects = getObjects();
+            if (!objects.contains(ObjectStore.COMMIT, remoteBranch)) {
+                Reachability reach = new Reachability(remoteObjects,
+                        CommitGraph.read(remoteDir, remoteObjects));
+                if (_messages == null) {
+                    _messages = MessageIndex.read(GITLET_FOLDER, objects);
                 }
+                copyObjects(objects, remoteObjects,
+                            reach.missingFrom(objects, remoteBranch),
+                            _messages);
             }
+            getPointers().setPointer(remoteName + "/" + remoteBranchName,
+                                     remoteBranch);
+        } finally {
+            close(remoteObjects);
         }
-        String branchName = remoteName + "/" + remoteBranchName;
-        getPointers().setPointer(branchName, remoteBranch);
+    }
+
+    /** Close STORE, the store of a remote directory opened for one
+     *  command, and forget the commits and trees read from it, so that
+     *  the next command, in a daemon or batch, reads the remote
+     *  afresh. */
+    private static void close(ObjectStore store) {
+        store.close();
+        Commit.forget(store);
+        Tree.forget(store);
+    }
+
+    /** Fetch the branch REMOTEBRANCHNAME of the remote REMOTENAME, the
+     *  repository served at URL, as for fetch.  The server is told the
+     *  commits of all local branches, and sends only what they lack. */
+    private static void fetchFrom(String url, String remoteName,
+                                  String remoteBranchName) {
+        ObjectStore objects = getObjects();
+        try (Client client = new Client(url, objects.idLength())) {
+            String remoteBranch = client.branches().get(remoteBranchName);
+            if (remoteBranch == null) {
+                exitWithError("That remote does not have that branch.");
+            }
+            if (!objects.contains(ObjectStore.COMMIT, remoteBranch)) {
+                if (_messages == null) {
+                    _messages = MessageIndex.read(GITLET_FOLDER, objects);
+                }
+                client.fetch(remoteBranch,
+                             new TreeSet<>(getPointers().getPointers()
+                                           .values()),
+                             objects, _messages);
+            }
+            getPointers().setPointer(remoteName + "/" + remoteBranchName,
+                                     remoteBranch);
+        } catch (GitletException excp) {
+            exitWithError(excp.getMessage());
+        }
+    }
+
+    /** Copy the objects in OBJECTS that the store TO lacks from the
+     *  store FROM: blobs first, in parallel, then the commits, each after
+     *  its parents and just after the new trees it names, each of which
+     *  comes after the trees below it.  So TO never holds a tree or
+     *  commit whose contents or history are incomplete, even if the copy
+     *  is cut short.  New commits are added to MESSAGES, if it is not
+     *  null. */
+    private static void copyObjects(ObjectStore to, ObjectStore from,
+                                    Reachability.ObjectSet objects,
+                                    MessageIndex messages) {
+        ArrayList<Runnable> blobs = new ArrayList<>();
+        HashSet<String> trees = new HashSet<>(), commits = new HashSet<>();
+        objects.forEach((type, id) -> {
+            if (to.contains(type, id)) {
+                return;
+            }
+            if (type == ObjectStore.BLOB) {
+                blobs.add(() -> to.copy(from, ObjectStore.BLOB, id));
+            } else if (type == ObjectStore.TREE) {
+                trees.add(id);
+            } else {
+                commits.add(id);
+            }
+        });
+        Utils.runInParallel(blobs);
+        for (String id : parentsFirst(from, commits)) {
+            Commit commit = Commit.load(from, id);
+            Tree.walk(from, commit.getTreeId(), trees::remove,
+                (type, treeId) -> {
+                    if (type == ObjectStore.TREE) {
+                        to.copy(from, type, treeId);
+                    }
+                });
+            to.copy(from, ObjectStore.COMMIT, id);
+            if (messages != null) {
+                messages.add(id, commit.getLogMessage());
+            }
+        }
+    }
+
+    /** Return the commits COMMITS, in the store STORE, ordered so that
+     *  each comes after those of its parents that are in COMMITS. */
+    private static List<String> parentsFirst(ObjectStore store,
+                                             Collection<String> commits) {
+        ArrayList<String> result = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>(), done = new HashSet<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        for (String tip : commits) {
+            stack.push(tip);
+            while (!stack.isEmpty()) {
+                String id = stack.peek();
+                if (seen.add(id)) {
+                    Commit commit = Commit.load(store, id);
+                    for (String parent : new String[] {
+                            commit.getParentHash(),
+                            commit.getBranchParentHash() }) {
+                        if (parent != null && commits.contains(parent)
+                            && !seen.contains(parent)) {
+                            stack.push(parent);
+                        }
+                    }
+                } else {
+                    stack.pop();
+                    if (done.add(id)) {
+                        result.add(id);
+                    }
+                }
+            }
+        }
+        return result;
     }
 
     public static void pull(String[] args) throws IOException {
@@ -647,6 +793,192 @@ public class Main {
         merge(new String[]{"merge", remoteName + "/" + remoteBranchName});
     }
 
+    /** Serve the repositories below the current directory to the
+     *  clients that connect at the address ARGS[1] (see Server), until
+     *  the process is ended. */
+    public static void serve(String[] args) {
+        validateNumArgs(args, 2);
+        try {
+            new Server(CWD).serve(args[1]);
+        } catch (GitletException excp) {
+            exitWithError(excp.getMessage());
+        }
+    }
+
+    /** Run a daemon for the current repository (see Daemon) until the
+     *  process is ended or, with the operand "stop", stop the daemon
+     *  that is running. */
+    public static void daemon(String[] args) {
+        validateGitletDir();
+        if (args.length == 2 && args[1].equals("stop")) {
+            if (Daemon.forward(args) < 0) {
+                exitWithError("No daemon is running.");
+            }
+            return;
+        }
+        validateNumArgs(args, 1);
+        try {
+            new Daemon().serve();
+        } catch (GitletException excp) {
+            exitWithError(excp.getMessage());
+        }
+    }
+
+    /** Run the commands read from the file named by ARGS, or from the
+     *  standard input if it names none, one per line, in this process.
+     *  A line holds the arguments of a command as they would be given to
+     *  gitlet, separated by blanks; an argument holding blanks is quoted
+     *  with ' or ", and within " a backslash escapes the next character.
+     *  Blank lines and lines starting with # are skipped.  A command that
+     *  fails prints its error, as it would alone, and the batch goes on.
+     *  The staging area and commit graph are written back once, when the
+     *  batch ends (see dispatch), so a batch that is killed loses its
+     *  staging. */
+    public static void batch(String[] args) throws IOException {
+        if (_batch) {
+            exitWithError("Cannot run that command in a batch.");
+        } else if (args.length > 2) {
+            exitWithError("Incorrect operands.");
+        }
+        File file = args.length == 2 ? new File(args[1]) : null;
+        if (file != null && !file.isFile()) {
+            exitWithError("File does not exist.");
+        }
+        _batch = true;
+        try (BufferedReader in = file == null
+                 ? new BufferedReader(new InputStreamReader(System.in))
+                 : Files.newBufferedReader(file.toPath())) {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                String trimmed = line.trim();
+                if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                    runInBatch(trimmed);
+                }
+            }
+        } finally {
+            _batch = false;
+        }
+    }
+
+    /** Run the command on LINE of a batch.  If it fails, whatever it
+     *  changed in the staging area is undone and the rest of the
+     *  repository state is read afresh, as if it had run alone; an
+     *  exception is reported as it would be then, on the standard
+     *  error. */
+    private static void runInBatch(String line) {
+        List<String> words = splitWords(line);
+        if (words == null) {
+            System.out.println("Unterminated quote.");
+            return;
+        } else if (words.get(0).equals("daemon")
+                   || words.get(0).equals("serve")) {
+            System.out.println("Cannot run that command in a batch.");
+            return;
+        }
+        Index saved = _index == null ? null : _index.copy();
+        boolean done;
+        try {
+            done = run(words.toArray(new String[0]));
+        } catch (IOException | RuntimeException excp) {
+            System.err.print("Exception in thread \"main\" ");
+            excp.printStackTrace();
+            done = false;
+        }
+        if (!done) {
+            _index = saved;
+            _pointers = null;
+            _graph = null;
+            _messages = null;
+        }
+    }
+
+    /** Return the words of LINE, as described in batch, or null if it
+     *  has an unterminated quote. */
+    private static List<String> splitWords(String line) {
+        ArrayList<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+                continue;
+            }
+            if (word == null) {
+                word = new StringBuilder();
+            }
+            if (c == quote) {
+                quote = 0;
+            } else if (quote == 0 && (c == '\'' || c == '"')) {
+                quote = c;
+            } else if (c == '\\' && quote == '"'
+                       && i + 1 < line.length()) {
+                i += 1;
+                word.append(line.charAt(i));
+            } else {
+                word.append(c);
+            }
+        }
+        if (quote != 0) {
+            return null;
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    public static void repack(String[] args) {
+        validateGitletDir();
+        validateNumArgs(args, 1);
+        int count = getObjects().repack();
+        getMessages().compact();
+        getGraph().write();
+        Reachability.write(getObjects(), getGraph(),
+                getPointers().getPointers().values());
+        System.out.println("Packed " + count + " objects.");
+    }
+
+    public static void config(String[] args) {
+        validateGitletDir();
+        Config config = Config.read(CONFIG_FILE);
+        if (args.length == 1) {
+            for (Map.Entry<String, String> entry
+                    : config.getSettings().entrySet()) {
+                System.out.println(entry.getKey() + " = " + entry.getValue());
+            }
+        } else if (args.length == 2) {
+            String value = config.get(args[1], null);
+            if (value != null) {
+                System.out.println(value);
+            }
+        } else {
+            validateNumArgs(args, 3);
+            if (args[1].equals(Config.COMPRESSION)
+                    && !args[2].matches("[0-9]")) {
+                exitWithError("Compression level must be 0 through 9.");
+            }
+            if (args[1].equals(Config.DELTA_DEPTH)
+                    && (!args[2].matches("[0-9]{1,3}")
+                        || Integer.parseInt(args[2]) > Byte.MAX_VALUE)) {
+                exitWithError("Delta depth must be 0 through "
+                        + Byte.MAX_VALUE + ".");
+            }
+            if (args[1].equals(Config.HARDLINKS)
+                    && !args[2].equals("true") && !args[2].equals("false")) {
+                exitWithError("Hardlinks must be true or false.");
+            }
+            if (args[1].equals(Config.HASH_ALGORITHM)) {
+                exitWithError("The object format is fixed when the "
+                        + "repository is created.");
+            }
+            config.set(args[1], args[2]);
+        }
+    }
+
     private static void preMergeCheck(
             Commit branchCommit, String branchName) {
         if (branchCommit == null) {
@@ -655,8 +987,7 @@ public class Main {
         if (Objects.equals(branchName, getPointers().getHead())) {
             exitWithError("Cannot merge a branch with itself.");
         }
-        if (!Utils.plainFilenamesIn(ADDITION_FOLDER).isEmpty()
-                || !Utils.plainFilenamesIn(REMOVAL_FOLDER).isEmpty()) {
+        if (!getIndex().isEmpty()) {
             exitWithError("You have uncommitted changes.");
         }
     }
@@ -671,64 +1002,47 @@ public class Main {
             return false;
         } else if (Objects.equals(splitPoint.getHash(),
                 headCommit.getHash())) {
-            checkout(new String[]{"checkout", branchName});
+            if (getPointers().getCommit(branchName) != null) {
+                checkout(new String[]{"checkout", branchName});
+            } else {
+                reset(new String[]{"reset", branchCommit.getHash()});
+            }
             System.out.println("Current branch fast-forwarded.");
             return false;
         }
         return true;
     }
 
+    /** Return the best common ancestor of HEAD and BRANCH, as found by
+     *  CommitGraph.mergeBase. */
     private static Commit findSplitPoint(Commit head, Commit branch) {
-        Set<String> visitedParents = getAncestors(branch);
-        Queue<Commit> otherParents = new LinkedList<>();
-        otherParents.add(head);
-        while (!otherParents.isEmpty()) {
-            Commit parentHead = otherParents.poll();
-            String parentHeadString = parentHead.getHash();
-            if (visitedParents.contains(parentHeadString)) {
-                File parentHeadFile = Utils.join(COMMIT_FOLDER,
-                        parentHeadString);
-                return Utils.readObject(parentHeadFile, Commit.class);
-            }
-            if (parentHead.getParent() != null) {
-                otherParents.add(parentHead.getParent());
-            }
-            if (parentHead.getBranchparent() != null) {
-                otherParents.add(parentHead.getBranchparent());
-            }
-        }
-        return null;
-    }
-
-    private static Set<String> getAncestors(Commit branch) {
-        Stack<Commit> work = new Stack<>();
-        Set<String> ancestors = new HashSet<>();
-        work.add(branch);
-        while (!work.empty()) {
-            Commit parent = work.pop();
-            ancestors.add(parent.getHash());
-            if (parent.getParent() != null) {
-                work.push(parent.getParent());
-            }
-            if (parent.getBranchparent() != null) {
-                work.push(parent.getBranchparent());
-            }
-        }
-        return ancestors;
+        CommitGraph graph = getGraph();
+        int base = graph.mergeBase(graph.position(head.getHash()),
+                graph.position(branch.getHash()));
+        return base < 0 ? null : Commit.load(graph.idAt(base));
     }
 
-    private static ArrayList<String> getAllMergeFiles(Commit headCommit,
-                                                     Commit branchCommit,
-                                                     Commit splitPoint) {
-        ArrayList<String> allFilesMerge = new ArrayList<>();
-        if (splitPoint.getFilesTracked() != null) {
-            allFilesMerge.addAll(splitPoint.getFilesTracked().keySet());
+    /** Return the files that differ between SPLITPOINT and either
+     *  HEADCOMMIT or BRANCHCOMMIT, in path order, each mapped to its blobs
+     *  in SPLITPOINT, HEADCOMMIT and BRANCHCOMMIT (null where it is
+     *  absent).  Directories whose trees are unchanged on both sides are
+     *  not examined, and the blobs come from the diffs, so no other tree
+     *  is read. */
+    private static TreeMap<String, String[]> getAllMergeFiles(
+            Commit headCommit, Commit branchCommit, Commit splitPoint) {
+        TreeMap<String, String[]> allFilesMerge = new TreeMap<>();
+        for (Map.Entry<String, String[]> change : Tree.diff(getObjects(),
+                splitPoint.getTreeId(), headCommit.getTreeId()).entrySet()) {
+            String[] blobs = change.getValue();
+            allFilesMerge.put(change.getKey(),
+                              new String[] {blobs[0], blobs[1], blobs[0]});
+        }
+        for (Map.Entry<String, String[]> change : Tree.diff(getObjects(),
+                splitPoint.getTreeId(), branchCommit.getTreeId()).entrySet()) {
+            String[] blobs = change.getValue();
+            allFilesMerge.computeIfAbsent(change.getKey(), file ->
+                    new String[] {blobs[0], blobs[0], null})[2] = blobs[1];
         }
-        allFilesMerge.addAll(headCommit.getFilesTracked().keySet());
-        allFilesMerge.addAll(branchCommit.getFilesTracked().keySet());
-        Set<String> set = new HashSet<>(allFilesMerge);
-        allFilesMerge.clear();
-        allFilesMerge.addAll(set);
         return allFilesMerge;
     }
 
@@ -737,13 +1051,12 @@ public class Main {
                                            String file) {
         File conflictFile = Utils.join(CWD, file);
         String dataHead = contentsHead != null
-                ? Utils.readContentsAsString(Utils.join(BLOB_FOLDER,
-                contentsHead))
+                ? new String(readBlob(contentsHead), StandardCharsets.UTF_8)
                 : "";
         String dataBranch = contentsOther != null
-                ? Utils.readContentsAsString(Utils.join(BLOB_FOLDER,
-                contentsOther))
+                ? new String(readBlob(contentsOther), StandardCharsets.UTF_8)
                 : "";
+        conflictFile.delete();
         Utils.writeContents(conflictFile,
                 "<<<<<<< HEAD\n"
                         + dataHead
@@ -751,50 +1064,61 @@ public class Main {
                         + dataBranch
                         + ">>>>>>>\n");
         byte[] conflictFileData = Utils.readContents(conflictFile);
-        String sha1hash = Utils.sha1(conflictFileData);
-        Utils.writeContents(Utils.join(BLOB_FOLDER, sha1hash),
-                conflictFileData);
-        new Addition(file, sha1hash);
+        String sha1hash = getObjects().hash(conflictFileData);
+        getObjects().write(ObjectStore.BLOB, sha1hash, conflictFileData,
+                contentsHead);
+        getIndex().stageAddition(file, sha1hash);
+        getIndex().recordStat(file, conflictFile, sha1hash);
     }
 
-    private static void handleMergeRemoval(String file, File headFile) {
-        Commit currCommit = getHeadCommit();
-        if (currCommit.getFilesTracked() != null) {
-            if (headFile.delete()) {
-                new Removal(file, currCommit.getFilesTracked()
-                        .get(file));
-            }
+    /** Delete FILE, tracked in the head commit as blob HEADBLOB, and
+     *  stage its removal. */
+    private static void handleMergeRemoval(String file, String headBlob) {
+        if (Utils.join(CWD, file).delete()) {
+            getIndex().stageRemoval(file, headBlob);
+        }
+    }
+
+    /** Write and stage the files in ADDITIONS, a mapping of file names to
+     *  the blobs the merge gives them. */
+    private static void handleMergeAdditions(Map<String, String> additions) {
+        materialize(additions, new ArrayList<>());
+        for (Map.Entry<String, String> entry : additions.entrySet()) {
+            getIndex().stageAddition(entry.getKey(), entry.getValue());
         }
     }
 
-    private static void handleMergeAddition(String file, File headFile,
-                                      String result) {
-        File resultBlob = Utils.join(BLOB_FOLDER, result);
-        byte[] blob = Utils.readContents(resultBlob);
-        String sha1hash = Utils.sha1(blob);
-        Utils.writeContents(headFile, blob);
-        new Addition(file, sha1hash);
+    /** Write each blob in WRITES, a mapping of file names to blobs, to its
+     *  working file, and delete the working files DELETES, in parallel
+     *  (see Materializer), recording the new state of each in the
+     *  index. */
+    private static void materialize(Map<String, String> writes,
+                                    Collection<String> deletes) {
+        try {
+            Materializer.apply(getObjects(), CWD, writes, deletes);
+        } catch (GitletException excp) {
+            exitWithError(excp.getMessage());
+        }
+        Index index = getIndex();
+        for (String fileName : deletes) {
+            index.forgetStat(fileName);
+        }
+        for (Map.Entry<String, String> entry : writes.entrySet()) {
+            index.recordStat(entry.getKey(), Utils.join(CWD, entry.getKey()),
+                    entry.getValue());
+        }
     }
 
     private static void mergeCommit(Commit branchCommit,
                                    String branchName,
                                    Commit headCommit,
                                    boolean mergeConflict) {
-        HashMap<String, String> filesTracking = new HashMap<>();
-        HashMap<String, String> filesRemoveTracking = new HashMap<>();
-        for (String fileName : Utils.plainFilenamesIn(ADDITION_FOLDER)) {
-            File addFile = Utils.join(ADDITION_FOLDER, fileName);
-            Addition addObject = Utils.readObject(addFile, Addition.class);
-            filesTracking.put(addObject.getFileName(), addObject.getBlobName());
-            addFile.delete();
-        }
-        for (String fileName : Utils.plainFilenamesIn(REMOVAL_FOLDER)) {
-            File removeFile = Utils.join(REMOVAL_FOLDER, fileName);
-            Removal removeObject = Utils.readObject(removeFile, Removal.class);
-            filesRemoveTracking.put(removeObject.getFileName(),
-                    removeObject.getBlobName());
-            removeFile.delete();
-        }
+        Index index = getIndex();
+        HashMap<String, String> filesTracking =
+                new HashMap<>(index.getAdditions());
+        HashMap<String, String> filesRemoveTracking =
+                new HashMap<>(index.getRemovals());
+        index.clear();
         new Commit("Merged " + branchName + " into "
                 + getPointers().getHead() + ".",
                 filesTracking,
@@ -817,19 +1141,8 @@ public class Main {
             if (!file.exists()) {
                 return "" + filename + " (deleted)";
             }
-            File additionFile = null;
-            for (String fn : Utils.plainFilenamesIn(ADDITION_FOLDER)) {
-                File aFile = Utils.join(ADDITION_FOLDER, fn);
-                Addition addition = Utils.readObject(aFile, Addition.class);
-                if (Objects.equals(addition.getFileName(), filename)) {
-                    additionFile = aFile;
-                }
-            }
-            Addition addition = Utils.readObject(additionFile, Addition.class);
-            File blobFile = Utils.join(BLOB_FOLDER, addition.getBlobName());
-            byte[] blobData = Utils.readContents(blobFile);
-            byte[] fileData = Utils.readContents(file);
-            if (!Utils.sha1(blobData).equals(Utils.sha1(fileData))) {
+            if (!getIndex().getAddition(filename)
+                    .equals(getIndex().blobOf(filename, file))) {
                 return "" + filename + " (modified)";
             }
         }
@@ -844,48 +1157,52 @@ public class Main {
 
     private static boolean isModified(String filename) {
         File file = Utils.join(CWD, filename);
-        if (!file.exists()
-                || getHeadCommit().getFilesTracked() == null) {
+        String blobName = headBlobOf(filename);
+        if (!file.exists() || blobName == null) {
             return false;
         }
-        String blobName = getHeadCommit().getFilesTracked().get(filename);
-        File blobFile = Utils.join(BLOB_FOLDER, blobName);
-        byte[] blobData = Utils.readContents(blobFile);
-        byte[] fileData = Utils.readContents(file);
-        return !Utils.sha1(blobData).equals(Utils.sha1(fileData));
+        return !blobName.equals(getIndex().blobOf(filename, file));
     }
 
     private static boolean isStagedAdd(String filename) {
-        for (String fn : Utils.plainFilenamesIn(ADDITION_FOLDER)) {
-            File additionFile = Utils.join(ADDITION_FOLDER, fn);
-            Addition addition = Utils.readObject(additionFile, Addition.class);
-            if (Objects.equals(addition.getFileName(), filename)) {
-                return true;
-            }
-        }
-        return false;
+        return getIndex().isStagedAdd(filename);
     }
 
     private static boolean isStagedRem(String filename) {
-        for (String fn : Utils.plainFilenamesIn(REMOVAL_FOLDER)) {
-            File removalFile = Utils.join(REMOVAL_FOLDER, fn);
-            Removal removal = Utils.readObject(removalFile, Removal.class);
-            if (Objects.equals(removal.getFileName(), filename)) {
-                return true;
-            }
-        }
-        return false;
+        return getIndex().isStagedRem(filename);
     }
 
     private static boolean isTracked(String filename) {
-        Commit commitHead = getHeadCommit();
-        HashMap<String, String> filesTracked = commitHead.getFilesTracked();
-        return filesTracked != null && filesTracked.get(filename) != null;
+        return headBlobOf(filename) != null;
     }
 
+    /** Return the blob that the head commit tracks as FILENAME, or null
+     *  if it does not track FILENAME.  Only the trees along FILENAME's
+     *  path are read. */
+    private static String headBlobOf(String filename) {
+        return Tree.find(getObjects(), getHeadCommit().getTreeId(),
+                         filename);
+    }
+
+    /** Return the branch pointers of the repository, reading them only
+     *  on the first call. */
     public static Pointers getPointers() {
-        File pointersFile = Utils.join(COMMIT_FOLDER, "pointers");
-        return Utils.readObject(pointersFile, Pointers.class);
+        if (_pointers == null) {
+            _pointers = Pointers.read(POINTERS_FILE);
+        }
+        return _pointers;
+    }
+
+    /** Return the commit whose id is or starts with COMMITID, exiting with
+     *  an error if there is no such commit or more than one. */
+    private static Commit resolveCommit(String commitId) {
+        List<String> ids = getObjects().findCommits(commitId, 2);
+        if (ids.isEmpty()) {
+            exitWithError("No commit with that id exists.");
+        } else if (ids.size() > 1) {
+            exitWithError(AMBIGUOUS_ID);
+        }
+        return Commit.load(ids.get(0));
     }
 
     private static Commit getHeadCommit() {
@@ -893,53 +1210,218 @@ public class Main {
         return pointers.getHeadCommit();
     }
 
-    private static void clearAdditionArea() {
-        for (String fn : Utils.plainFilenamesIn(ADDITION_FOLDER)) {
-            Utils.join(ADDITION_FOLDER, fn).delete();
+    /** Return the object store of the repository. */
+    public static ObjectStore getObjects() {
+        return ObjectStore.of(GITLET_FOLDER);
+    }
+
+    /** Return the message index of the repository, building it first if
+     *  there is none. */
+    static MessageIndex getMessages() {
+        if (_messages == null) {
+            _messages = MessageIndex.read(GITLET_FOLDER, getObjects());
+            if (_messages == null) {
+                _messages = MessageIndex.build(GITLET_FOLDER, getObjects());
+            }
+        }
+        return _messages;
+    }
+
+    /** Record in the message index, if the repository has one, that the
+     *  commit ID has the log message MESSAGE. */
+    static void indexMessage(String id, String message) {
+        if (_messages == null) {
+            _messages = MessageIndex.read(GITLET_FOLDER, getObjects());
+        }
+        if (_messages != null) {
+            _messages.add(id, message);
         }
     }
 
-    private static void clearRemovalArea() {
-        for (String fn : Utils.plainFilenamesIn(REMOVAL_FOLDER)) {
-            Utils.join(REMOVAL_FOLDER, fn).delete();
+    /** Return the commit graph of the repository. */
+    static CommitGraph getGraph() {
+        if (_graph == null) {
+            _graph = CommitGraph.read(GITLET_FOLDER, getObjects());
         }
+        return _graph;
     }
 
-    private static void untrackedFileCheck(Commit branch) {
-        for (Map.Entry<String, String> entry
-                : branch.getFilesTracked().entrySet()) {
-            String trackedFileName = entry.getKey();
-            if (Utils.join(CWD, trackedFileName).exists()
-                && !isTracked(trackedFileName)) {
+    /** Return the contents of the blob named BLOBNAME. */
+    private static byte[] readBlob(String blobName) {
+        return getObjects().read(ObjectStore.BLOB, blobName);
+    }
+
+    /** Write the contents of the blob named BLOBNAME to FILE. */
+    private static void writeBlob(String blobName, File file) {
+        getObjects().copyTo(ObjectStore.BLOB, blobName, file);
+    }
+
+    /** Return the staging area, reading it only on the first call.  It
+     *  is written back when the command completes. */
+    public static Index getIndex() {
+        if (_index == null) {
+            _index = Index.read(INDEX_FILE);
+        }
+        return _index;
+    }
+
+    /** Exit with an error if any file that CHANGES, a diff from the head
+     *  commit to another, would add exists in the working directory
+     *  without being tracked by the head commit. */
+    private static void untrackedFileCheck(Map<String, String[]> changes) {
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            if (change.getValue()[0] == null && change.getValue()[1] != null
+                && Utils.join(CWD, change.getKey()).isFile()) {
                 exitWithError("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
             }
         }
     }
 
+    /** Make the working files match TARGET, and clear the staging area.
+     *  Only the files whose blobs differ between the head commit and
+     *  TARGET, files with staged changes, and tracked files that are
+     *  missing or differ from the head commit are written or deleted;
+     *  the last are found through the stat cache of the index, so that
+     *  unchanged files are not read.  Exits with an error, before
+     *  changing anything, if an untracked working file would be
+     *  overwritten. */
+    private static void checkoutCommit(Commit target) {
+        Index index = getIndex();
+        Commit head = getHeadCommit();
+        TreeMap<String, String[]> changes = Tree.diff(getObjects(),
+                head.getTreeId(), target.getTreeId());
+        untrackedFileCheck(changes);
+        TreeSet<String> staged = new TreeSet<>(index.getAdditions().keySet());
+        staged.addAll(index.getRemovals().keySet());
+        for (String fileName : staged) {
+            String blobName = Tree.find(getObjects(), target.getTreeId(),
+                    fileName);
+            if (blobName != null) {
+                changes.putIfAbsent(fileName, new String[] {null, blobName});
+            }
+        }
+        HashMap<String, String> tracked = head.getFilesTracked();
+        HashMap<String, File> present = new HashMap<>();
+        for (Map.Entry<String, String> file : tracked.entrySet()) {
+            if (!changes.containsKey(file.getKey())) {
+                File working = Utils.join(CWD, file.getKey());
+                if (working.isFile()) {
+                    present.put(file.getKey(), working);
+                } else {
+                    changes.put(file.getKey(),
+                                new String[] {null, file.getValue()});
+                }
+            }
+        }
+        for (Map.Entry<String, String> blob
+                 : index.blobsOf(present).entrySet()) {
+            String headBlob = tracked.get(blob.getKey());
+            if (!blob.getValue().equals(headBlob)) {
+                changes.put(blob.getKey(), new String[] {null, headBlob});
+            }
+        }
+        TreeMap<String, String> writes = new TreeMap<>();
+        ArrayList<String> deletes = new ArrayList<>();
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            if (change.getValue()[1] == null) {
+                deletes.add(change.getKey());
+            } else {
+                writes.put(change.getKey(), change.getValue()[1]);
+            }
+        }
+        materialize(writes, deletes);
+        index.clear();
+    }
+
     public static Remotes getRemotes() {
         File remotesFile = Utils.join(GITLET_FOLDER, "remotes");
-        return Utils.readObject(remotesFile, Remotes.class);
+        return Remotes.read(remotesFile);
+    }
+
+    /** The branch pointers of the repository, once read. */
+    private static Pointers _pointers;
+
+    /** The staging area of the repository, once read. */
+    private static Index _index;
+
+    /** The commit graph of the repository, once read. */
+    private static CommitGraph _graph;
+
+    /** The message index of the repository, once read. */
+    private static MessageIndex _messages;
+
+    /** True while running the commands of a batch. */
+    private static boolean _batch;
+
+    /** Forget the repository state that this process has read from the
+     *  files for which CHANGED returns true, so that it is read again
+     *  when next needed.  A Daemon calls this between commands. */
+    static void forget(Predicate<File> changed) {
+        if (changed.test(CONFIG_FILE)
+            || changed.test(Utils.join(GITLET_FOLDER, "pack"))) {
+            ObjectStore store = ObjectStore.forget(GITLET_FOLDER);
+            if (store != null) {
+                Commit.forget(store);
+                Tree.forget(store);
+            }
+            _graph = null;
+            _messages = null;
+        }
+        if (changed.test(POINTERS_FILE)) {
+            _pointers = null;
+        }
+        if (changed.test(INDEX_FILE)) {
+            _index = null;
+        }
+        if (changed.test(Utils.join(GITLET_FOLDER, "commit-graph"))) {
+            _graph = null;
+        }
+        if (changed.test(Utils.join(GITLET_FOLDER, "messages"))
+            || changed.test(Utils.join(GITLET_FOLDER, "messages.log"))) {
+            _messages = null;
+        }
+    }
+
+    /** Thrown to end a command early, once its error message, if any,
+     *  has been printed. */
+    private static class Exit extends RuntimeException {
+        /** Exits are never serialized; this quiets the lint. */
+        private static final long serialVersionUID = 4195624306728374861L;
+
+        /** An Exit, which needs no stack trace. */
+        Exit() {
+            super(null, null, false, false);
+        }
     }
 
     private static void exitWithError(String message) {
         if (message != null && !message.equals("")) {
             System.out.println(message);
         }
-        System.exit(0);
+        throw new Exit();
     }
 
     private static void validateNumArgs(String[] args, int n) {
         if (args.length != n) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            exitWithError("Incorrect operands.");
         }
     }
 
+    /** Exit with an error unless the current directory holds a
+     *  repository.  One made by the first version of gitlet is upgraded
+     *  (see Legacy) by opening its store. */
     private static void validateGitletDir() {
         if (!GITLET_FOLDER.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            exitWithError("Not in an initialized Gitlet directory.");
+        }
+        if (Legacy.isLegacy(GITLET_FOLDER)) {
+            try {
+                getObjects();
+            } catch (IllegalArgumentException excp) {
+                exitWithError("Cannot upgrade this repository: "
+                              + excp.getMessage());
+            }
         }
     }
 }
@@ -0,0 +1,86 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeSet;
+
+/** Brings working files up to date with blobs, on a bounded pool of
+ *  threads, so that large checkouts are limited by the disk rather than
+ *  by the latency of one file operation after another.
+ *
+ *  Work is done in an order that keeps directories consistent: files to
+ *  be deleted are deleted first, then directories that this left empty
+ *  are removed, deepest first (so that a directory may be replaced by a
+ *  file of the same name), then the directories that new files need are
+ *  created, and finally the files are written.
+ *  @author Stephen Ip
+ */
+class Materializer {
+
+    /** Delete the files named in DELETES, and write each blob from STORE
+     *  in WRITES, a mapping of file names to blobs, to its file.  File
+     *  names are relative to ROOT and separated by '/'.  Throws
+     *  GitletException naming the first file that could not be written
+     *  or deleted, once all the others have been processed. */
+    static void apply(ObjectStore store, File root, Map<String, String> writes,
+                      Collection<String> deletes) {
+        ArrayList<Runnable> deletions = new ArrayList<>();
+        for (String fileName : deletes) {
+            deletions.add(() -> {
+                File file = Utils.join(root, fileName);
+                if (!file.delete() && file.exists()) {
+                    throw Utils.error("Cannot delete %s.", fileName);
+                }
+            });
+        }
+        Utils.runInParallel(deletions);
+        removeEmptyParents(root, deletes);
+        TreeSet<String> dirs = new TreeSet<>();
+        for (String fileName : writes.keySet()) {
+            int slash = fileName.lastIndexOf('/');
+            if (slash > 0) {
+                dirs.add(fileName.substring(0, slash));
+            }
+        }
+        for (String dir : dirs) {
+            Utils.join(root, dir).mkdirs();
+        }
+        ArrayList<Runnable> copies = new ArrayList<>();
+        for (Map.Entry<String, String> entry : writes.entrySet()) {
+            copies.add(() -> {
+                try {
+                    store.copyTo(ObjectStore.BLOB, entry.getValue(),
+                                 Utils.join(root, entry.getKey()));
+                } catch (IllegalArgumentException excp) {
+                    throw Utils.error("Cannot write %s: %s", entry.getKey(),
+                                      excp.getMessage());
+                }
+            });
+        }
+        Utils.runInParallel(copies);
+    }
+
+    /** Remove the directories below ROOT that contained the files
+     *  DELETED and are now empty, deepest first. */
+    private static void removeEmptyParents(File root,
+                                           Collection<String> deleted) {
+        TreeSet<String> dirs = new TreeSet<>((a, b) -> {
+            int depth = b.split("/").length - a.split("/").length;
+            return depth != 0 ? depth : a.compareTo(b);
+        });
+        for (String fileName : deleted) {
+            for (int slash = fileName.lastIndexOf('/'); slash > 0;
+                 slash = fileName.lastIndexOf('/', slash - 1)) {
+                dirs.add(fileName.substring(0, slash));
+            }
+        }
+        for (String dir : dirs) {
+            String[] contents = Utils.join(root, dir).list();
+            if (contents != null && contents.length == 0) {
+                Utils.join(root, dir).delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,568 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** An index of the log messages of a repository's commits, by which find
+ *  looks up commits without reading every one.  It answers three kinds
+ *  of query: commits whose message is exactly a given string, commits
+ *  whose message contains every word of a string (ignoring case and
+ *  order), and commits whose message contains a given substring.  Words
+ *  are the maximal runs of letters and digits, in lower case.
+ *
+ *  The index is kept in two files.  The base, .gitlet/messages, is
+ *  memory-mapped and read only where a query needs it.  After a header
+ *  (MAGIC, a format version, the length in bytes of ids, and the numbers
+ *  of commits and of distinct words) come the commits' raw ids, numbered
+ *  from 0 in that order; a table of (64-bit message hash, commit number)
+ *  pairs, sorted; and a dictionary of the words, sorted, each with the
+ *  ascending numbers of the commits whose messages contain it.  The
+ *  journal, .gitlet/messages.log, holds the id and message of each
+ *  commit added since the base was written, and is searched directly.
+ *  When it grows past MAX_JOURNAL bytes, or when the repository is
+ *  repacked, it is merged into a new base.
+ *
+ *  Index entries only suggest candidates: the messages of the commits
+ *  they name are checked before a commit is reported, so hash
+ *  collisions and words that only partly match cost time, never wrong
+ *  answers.  A repository with no base has no index; one is built, from
+ *  every commit, the first time it is needed.
+ *  @author Stephen Ip
+ */
+class MessageIndex {
+
+    /** Magic number at the start of a base. */
+    private static final int MAGIC = 0x474d5358;
+
+    /** Version of the format of bases. */
+    private static final int VERSION = 1;
+
+    /** Size of the header of a base, in bytes. */
+    private static final int HEADER = 20;
+
+    /** Size of one entry of the message table, in bytes. */
+    private static final int MESSAGE_ENTRY = 12;
+
+    /** Size of one entry of the word table, in bytes. */
+    private static final int WORD_ENTRY = 8;
+
+    /** Size, in bytes, past which the journal is merged into the base. */
+    private static final long MAX_JOURNAL = 1 << 20;
+
+    /** The index of the commits in STORE, kept in GITLETDIR. */
+    private MessageIndex(File gitletDir, ObjectStore store) {
+        _store = store;
+        _baseFile = Utils.join(gitletDir, "messages");
+        _journalFile = Utils.join(gitletDir, "messages.log");
+        map();
+    }
+
+    /** Return the message index of the commits in STORE that is kept in
+     *  GITLETDIR, or null if there is none. */
+    static MessageIndex read(File gitletDir, ObjectStore store) {
+        if (!Utils.join(gitletDir, "messages").isFile()) {
+            return null;
+        }
+        return new MessageIndex(gitletDir, store);
+    }
+
+    /** Index every commit in STORE, replacing any index in GITLETDIR, and
+     *  return the result. */
+    static MessageIndex build(File gitletDir, ObjectStore store) {
+        Contents contents = new Contents();
+        for (String id : store.list(ObjectStore.COMMIT)) {
+            contents.add(id, Commit.load(store, id).getLogMessage());
+        }
+        Utils.join(gitletDir, "messages.log").delete();
+        contents.write(Utils.join(gitletDir, "messages"), store.idLength());
+        return new MessageIndex(gitletDir, store);
+    }
+
+    /** Record that the commit ID has the log message MESSAGE. */
+    void add(String id, String message) {
+        byte[] record = new Codec.Encoder().writeId(id)
+            .writeString(message).toByteArray();
+        try (FileOutputStream out =
+                 new FileOutputStream(_journalFile, true)) {
+            out.write(record);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_journal != null) {
+            _journal.put(id, message);
+        }
+        if (_journalFile.length() > MAX_JOURNAL) {
+            compact();
+        }
+    }
+
+    /** Merge the journal into a new base. */
+    void compact() {
+        if (!_journalFile.exists()) {
+            return;
+        }
+        Contents contents = new Contents();
+        HashSet<String> indexed = new HashSet<>();
+        for (int n = 0; n < _size; n += 1) {
+            indexed.add(idAt(n));
+            contents._ids.add(idAt(n));
+            contents._hashes.add(
+                _map.getLong(_messages + n * MESSAGE_ENTRY));
+        }
+        for (int w = 0; w < _words; w += 1) {
+            contents._postings.put(wordAt(w), new Postings(postings(w)));
+        }
+        for (Map.Entry<String, String> entry : journal().entrySet()) {
+            if (indexed.add(entry.getKey())) {
+                contents.add(entry.getKey(), entry.getValue());
+            }
+        }
+        contents.write(_baseFile, _store.idLength());
+        _journalFile.delete();
+        _journal = null;
+        map();
+    }
+
+    /** Return the ids of the commits whose message is MESSAGE, in
+     *  ascending order. */
+    List<String> withMessage(String message) {
+        TreeSet<String> result = new TreeSet<>();
+        long hash = hash(message);
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_map.getLong(_messages + mid * MESSAGE_ENTRY) < hash) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int k = lo; k < _size
+                 && _map.getLong(_messages + k * MESSAGE_ENTRY) == hash;
+             k += 1) {
+            String id =
+                idAt(_map.getInt(_messages + k * MESSAGE_ENTRY + 8));
+            if (messageOf(id).equals(message)) {
+                result.add(id);
+            }
+        }
+        for (Map.Entry<String, String> entry : journal().entrySet()) {
+            if (entry.getValue().equals(message)) {
+                result.add(entry.getKey());
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Return the ids of the commits whose message contains every word of
+     *  TEXT, in ascending order. */
+    List<String> withWords(String text) {
+        TreeSet<String> words = words(text);
+        TreeSet<String> result = new TreeSet<>();
+        if (words.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int[] candidates = null;
+        for (String word : words) {
+            int[] found = postings(word);
+            candidates = candidates == null
+                ? found : intersect(candidates, found);
+        }
+        for (int n : candidates) {
+            result.add(idAt(n));
+        }
+        for (Map.Entry<String, String> entry : journal().entrySet()) {
+            if (words(entry.getValue()).containsAll(words)) {
+                result.add(entry.getKey());
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Return the ids of the commits whose message contains TEXT, in
+     *  ascending order.  The words of TEXT select the candidates: a word
+     *  with a separator on each side must be a word of the message, the
+     *  last word of TEXT must start one, and so on; only when TEXT has no
+     *  words is every commit examined. */
+    List<String> containing(String text) {
+        int[] candidates = null;
+        ArrayList<String> whole = new ArrayList<>();
+        String starting = null, ending = null, within = null;
+        for (int i = 0; i < text.length(); ) {
+            if (!Character.isLetterOrDigit(text.charAt(i))) {
+                i += 1;
+                continue;
+            }
+            int start = i;
+            while (i < text.length()
+                   && Character.isLetterOrDigit(text.charAt(i))) {
+                i += 1;
+            }
+            String word = text.substring(start, i).toLowerCase(Locale.ROOT);
+            if (start > 0 && i < text.length()) {
+                whole.add(word);
+            } else if (start > 0) {
+                starting = word;
+            } else if (i < text.length()) {
+                ending = word;
+            } else {
+                within = word;
+            }
+        }
+        if (!whole.isEmpty()) {
+            for (String word : whole) {
+                int[] found = postings(word);
+                candidates = candidates == null
+                    ? found : intersect(candidates, found);
+            }
+        } else if (starting != null) {
+            candidates = new int[0];
+            for (int w = findWord(starting);
+                 w < _words && wordAt(w).startsWith(starting); w += 1) {
+                candidates = union(candidates, postings(w));
+            }
+        } else if (ending != null || within != null) {
+            candidates = new int[0];
+            for (int w = 0; w < _words; w += 1) {
+                String word = wordAt(w);
+                if (ending != null ? word.endsWith(ending)
+                    : word.contains(within)) {
+                    candidates = union(candidates, postings(w));
+                }
+            }
+        }
+        TreeSet<String> result = new TreeSet<>();
+        if (candidates == null) {
+            for (int n = 0; n < _size; n += 1) {
+                if (messageOf(idAt(n)).contains(text)) {
+                    result.add(idAt(n));
+                }
+            }
+        } else {
+            for (int n : candidates) {
+                if (messageOf(idAt(n)).contains(text)) {
+                    result.add(idAt(n));
+                }
+            }
+        }
+        for (Map.Entry<String, String> entry : journal().entrySet()) {
+            if (entry.getValue().contains(text)) {
+                result.add(entry.getKey());
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Map the base and locate its tables. */
+    private void map() {
+        try (FileChannel channel = FileChannel.open(_baseFile.toPath())) {
+            _map = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                               channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_map.getInt(0) != MAGIC || _map.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("bad message index");
+        }
+        _idLength = _map.getInt(8);
+        _size = _map.getInt(12);
+        _words = _map.getInt(16);
+        _messages = HEADER + _size * _idLength;
+        _wordTable = _messages + _size * MESSAGE_ENTRY;
+        _names = _wordTable + (_words + 1) * WORD_ENTRY;
+        _postings = _names + _map.getInt(_wordTable + _words * WORD_ENTRY);
+    }
+
+    /** Return the id of commit number N of the base. */
+    private String idAt(int n) {
+        byte[] raw = new byte[_idLength];
+        _map.get(HEADER + n * _idLength, raw);
+        return Utils.toHex(raw);
+    }
+
+    /** Return word number W of the base. */
+    private String wordAt(int w) {
+        int start = _map.getInt(_wordTable + w * WORD_ENTRY),
+            end = _map.getInt(_wordTable + (w + 1) * WORD_ENTRY);
+        byte[] name = new byte[end - start];
+        _map.get(_names + start, name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /** Return the numbers of the commits whose messages contain word
+     *  number W of the base, in ascending order. */
+    private int[] postings(int w) {
+        int start = _map.getInt(_wordTable + w * WORD_ENTRY + 4),
+            end = _map.getInt(_wordTable + (w + 1) * WORD_ENTRY + 4);
+        int[] result = new int[end - start];
+        for (int k = 0; k < result.length; k += 1) {
+            result[k] = _map.getInt(_postings + 4 * (start + k));
+        }
+        return result;
+    }
+
+    /** Return the numbers of the commits of the base whose messages
+     *  contain WORD, in ascending order. */
+    private int[] postings(String word) {
+        int w = findWord(word);
+        return w < _words && wordAt(w).equals(word)
+            ? postings(w) : new int[0];
+    }
+
+    /** Return the number of the first word of the base that is not less
+     *  than WORD. */
+    private int findWord(String word) {
+        int lo = 0, hi = _words;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (wordAt(mid).compareTo(word) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the log message of the commit ID. */
+    private String messageOf(String id) {
+        return Commit.load(_store, id).getLogMessage();
+    }
+
+    /** Return the journal, as a mapping of commit ids to messages in the
+     *  order they were added.  A record cut short (by a write that did
+     *  not finish) ends the journal. */
+    private Map<String, String> journal() {
+        if (_journal == null) {
+            _journal = new LinkedHashMap<>();
+            if (_journalFile.isFile()) {
+                Codec.Decoder in =
+                    new Codec.Decoder(Utils.readContents(_journalFile));
+                try {
+                    while (!in.atEnd()) {
+                        String id = in.readId(_idLength);
+                        _journal.put(id, in.readString());
+                    }
+                } catch (IllegalArgumentException excp) {
+                    /* Ignore a partial last record. */
+                }
+            }
+        }
+        return _journal;
+    }
+
+    /** Return the distinct words of TEXT. */
+    static TreeSet<String> words(String text) {
+        TreeSet<String> result = new TreeSet<>();
+        for (int i = 0; i < text.length(); ) {
+            if (!Character.isLetterOrDigit(text.charAt(i))) {
+                i += 1;
+                continue;
+            }
+            int start = i;
+            while (i < text.length()
+                   && Character.isLetterOrDigit(text.charAt(i))) {
+                i += 1;
+            }
+            result.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        }
+        return result;
+    }
+
+    /** Return the 64-bit hash of MESSAGE that the base is sorted by. */
+    private static long hash(String message) {
+        byte[] digest = Utils.digest(Utils.SHA1)
+            .digest(message.getBytes(StandardCharsets.UTF_8));
+        long result = 0;
+        for (int i = 0; i < Long.BYTES; i += 1) {
+            result = (result << 8) | (digest[i] & 0xff);
+        }
+        return result;
+    }
+
+    /** Return the numbers in both of the ascending arrays A and B. */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[n++] = a[i];
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Return the numbers in either of the ascending arrays A and B. */
+    private static int[] union(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int n = 0, i = 0, j = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || i < a.length && a[i] < b[j]) {
+                result[n++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[n++] = b[j++];
+            } else {
+                result[n++] = a[i++];
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** The contents of a base, assembled in memory to be written. */
+    private static class Contents {
+
+        /** Add the commit ID, with message MESSAGE, as the next commit. */
+        void add(String id, String message) {
+            int n = _ids.size();
+            _ids.add(id);
+            _hashes.add(hash(message));
+            for (String word : words(message)) {
+                _postings.computeIfAbsent(word, k -> new Postings(new int[0]))
+                    .add(n);
+            }
+        }
+
+        /** Write me to FILE as a base whose ids are IDLENGTH bytes long,
+         *  replacing it atomically. */
+        void write(File file, int idLength) {
+            long[][] table = new long[_ids.size()][];
+            for (int n = 0; n < table.length; n += 1) {
+                table[n] = new long[] {_hashes.get(n), n};
+            }
+            Arrays.sort(table, (x, y) -> x[0] != y[0]
+                        ? Long.compare(x[0], y[0]) : Long.compare(x[1], y[1]));
+            ArrayList<byte[]> names = new ArrayList<>();
+            for (String word : _postings.keySet()) {
+                names.add(word.getBytes(StandardCharsets.UTF_8));
+            }
+            File temp = Utils.tempFileFor(file);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(
+                            temp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(idLength);
+                out.writeInt(_ids.size());
+                out.writeInt(_postings.size());
+                for (String id : _ids) {
+                    out.write(Utils.fromHex(id));
+                }
+                for (long[] entry : table) {
+                    out.writeLong(entry[0]);
+                    out.writeInt((int) entry[1]);
+                }
+                int nameOffset = 0, postingOffset = 0, w = 0;
+                for (Postings postings : _postings.values()) {
+                    out.writeInt(nameOffset);
+                    out.writeInt(postingOffset);
+                    nameOffset += names.get(w).length;
+                    postingOffset += postings._size;
+                    w += 1;
+                }
+                out.writeInt(nameOffset);
+                out.writeInt(postingOffset);
+                for (byte[] name : names) {
+                    out.write(name);
+                }
+                for (Postings postings : _postings.values()) {
+                    for (int k = 0; k < postings._size; k += 1) {
+                        out.writeInt(postings._numbers[k]);
+                    }
+                }
+            } catch (IOException excp) {
+                temp.delete();
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                temp.delete();
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Ids of the commits, in order of their numbers. */
+        private final ArrayList<String> _ids = new ArrayList<>();
+        /** Hashes of the commits' messages, in the same order. */
+        private final ArrayList<Long> _hashes = new ArrayList<>();
+        /** Numbers of the commits containing each word, by word. */
+        private final TreeMap<String, Postings> _postings =
+            new TreeMap<>();
+    }
+
+    /** A growing list of the numbers of the commits containing a word. */
+    private static class Postings {
+        /** A list containing NUMBERS. */
+        Postings(int[] numbers) {
+            _numbers = numbers;
+            _size = numbers.length;
+        }
+
+        /** Append N. */
+        void add(int n) {
+            if (_size == _numbers.length) {
+                _numbers = Arrays.copyOf(_numbers, 2 * _size + 4);
+            }
+            _numbers[_size++] = n;
+        }
+
+        /** The numbers, of which the first _size are in use. */
+        private int[] _numbers;
+        /** Number of numbers. */
+        private int _size;
+    }
+
+    /** The store holding the indexed commits. */
+    private final ObjectStore _store;
+
+    /** The file holding the base. */
+    private final File _baseFile;
+
+    /** The file holding the journal. */
+    private final File _journalFile;
+
+    /** The memory-mapped base. */
+    private MappedByteBuffer _map;
+
+    /** Length of an id, in bytes. */
+    private int _idLength;
+
+    /** Number of commits in the base. */
+    private int _size;
+
+    /** Number of distinct words in the base. */
+    private int _words;
+
+    /** Positions in the base of the message table, word table, word
+     *  names and postings. */
+    private int _messages, _wordTable, _names, _postings;
+
+    /** The journal, once read. */
+    private Map<String, String> _journal;
+}
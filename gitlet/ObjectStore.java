@@ -0,0 +1,924 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** The objects (blobs, trees and commits) of one repository.  Each
+ *  object is named by the hash of its uncompressed contents: SHA-1, or
+ *  SHA-256 in a repository created with core.hashAlgorithm set to
+ *  sha256.
+ *
+ *  An object is stored either loose, as a single file in the blobs,
+ *  trees or commits folder, or in a pack (see Pack) in the pack folder.
+ *  Packs are searched first; loose objects are the ones written since
+ *  the last repack.  The loose folders are sharded (see
+ *  Utils.shardedFile) so that no one directory grows large.  The first
+ *  time the store of a repository made before sharding is opened, its
+ *  loose objects are moved into shards, or, in a repository made by the
+ *  first version of gitlet, stored anew (see Legacy); the core.layout
+ *  setting records that this was done.
+ *
+ *  The stored form of an object is a one-byte encoding tag followed by
+ *  its contents, deflated unless core.compression is 0.  A blob written
+ *  with a base (typically the previous version of the same file) may
+ *  instead be stored as a Delta against that base, when that is smaller;
+ *  delta chains are at most core.deltaDepth long, and recently rebuilt
+ *  blobs are cached, so that reading a blob costs a bounded number of
+ *  delta applications.  Otherwise objects are hashed, stored and read as
+ *  streams, so files of any size are handled in constant memory.
+ *
+ *  A store may be read and written by several threads, and processes,
+ *  at once.  Every loose object is written to a temporary file of its
+ *  own and renamed into place, so those writing the same object (as
+ *  threads copying objects that share a delta base do, or a daemon and
+ *  a command run alone) never see or publish each other's partial
+ *  writes.  Repacking must not overlap other use of the store.
+ *  @author Stephen Ip
+ */
+class ObjectStore {
+
+    /** Type of a blob: the contents of a tracked file. */
+    static final byte BLOB = 1;
+
+    /** Type of a commit. */
+    static final byte COMMIT = 2;
+
+    /** Type of a tree: the contents of one directory of a commit. */
+    static final byte TREE = 3;
+
+    /** All object types. */
+    static final byte[] TYPES = {BLOB, COMMIT, TREE};
+
+    /** Encoding tag of contents stored as is. */
+    private static final byte STORED = 0;
+
+    /** Encoding tag of deflated contents. */
+    private static final byte DEFLATED = 1;
+
+    /** Encoding tag of contents stored as a deflated delta.  The tag is
+     *  followed by the length of the delta chain as a byte, and the name
+     *  of the base (in DataOutput.writeUTF form). */
+    private static final byte DELTA = 2;
+
+    /** Largest blob, in bytes, that is stored as or used as the base of a
+     *  delta. */
+    private static final int MAX_DELTA_SIZE = 1 << 20;
+
+    /** Default limit on the length of delta chains. */
+    private static final int DEFAULT_DELTA_DEPTH = 10;
+
+    /** Total size, in bytes, of the rebuilt blobs kept in the cache. */
+    private static final long CACHE_SIZE = 16L << 20;
+
+    /** Suffix of the raw, header-less copies of blobs that working files
+     *  are hard-linked to. */
+    private static final String RAW_SUFFIX = ".raw";
+
+    /** Modification time given to raw files, in milliseconds since the
+     *  epoch, by which one that has been written into is recognized. */
+    private static final long RAW_TIME = 946684800000L;
+
+    /** Value of core.layout for a store whose loose folders are
+     *  sharded. */
+    private static final String SHARDED = "sharded";
+
+    /** Size of the buffers used to inflate and deflate objects. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The object store of the repository whose .gitlet directory is
+     *  GITLETDIR. */
+    private ObjectStore(File gitletDir) {
+        _blobFolder = Utils.join(gitletDir, "blobs");
+        _commitFolder = Utils.join(gitletDir, "commits");
+        _treeFolder = Utils.join(gitletDir, "trees");
+        _packFolder = Utils.join(gitletDir, "pack");
+        _commitIndexFile = Utils.join(gitletDir, "commit-index");
+        _configFile = Utils.join(gitletDir, "config");
+        Config config = Config.read(_configFile);
+        _level = config.getInt(Config.COMPRESSION,
+                Deflater.DEFAULT_COMPRESSION);
+        _maxDepth = Math.min(config.getInt(Config.DELTA_DEPTH,
+                DEFAULT_DELTA_DEPTH), Byte.MAX_VALUE);
+        String algorithm = config.get(Config.HASH_ALGORITHM, "sha1");
+        if (algorithm.equals("sha1")) {
+            _algorithm = Utils.SHA1;
+        } else if (algorithm.equals("sha256")) {
+            _algorithm = Utils.SHA256;
+        } else {
+            throw Utils.error("Unknown hash algorithm: %s", algorithm);
+        }
+        _idLength = Utils.digest(_algorithm).getDigestLength();
+        _hardlinks = config.getBoolean(Config.HARDLINKS, false);
+        if (_blobFolder.isDirectory()
+                && !config.get(Config.LAYOUT, "").equals(SHARDED)) {
+            boolean legacy = Legacy.isLegacy(gitletDir);
+            if (legacy) {
+                Legacy.upgrade(gitletDir, this);
+            } else {
+                shard(_blobFolder);
+                shard(_commitFolder);
+            }
+            config.set(Config.LAYOUT, SHARDED);
+            if (legacy) {
+                Legacy.remove(gitletDir);
+            }
+        }
+    }
+
+    /** Return the object store of the repository whose .gitlet directory
+     *  is GITLETDIR.  There is one store per repository per invocation. */
+    static synchronized ObjectStore of(File gitletDir) {
+        File key = gitletDir.getAbsoluteFile();
+        ObjectStore store = STORES.get(key);
+        if (store == null) {
+            store = new ObjectStore(gitletDir);
+            STORES.put(key, store);
+        }
+        return store;
+    }
+
+    /** Forget the store of the repository whose .gitlet directory is
+     *  GITLETDIR, so that the next call of of reads it afresh, and close
+     *  its packs.  Returns the store forgotten, or null if there was
+     *  none. */
+    static synchronized ObjectStore forget(File gitletDir) {
+        ObjectStore store = STORES.remove(gitletDir.getAbsoluteFile());
+        if (store != null) {
+            store.close();
+        }
+        return store;
+    }
+
+    /** Return a store of the repository whose .gitlet directory is
+     *  GITLETDIR of its own, not shared with other callers, that sees the
+     *  repository as it is now.  The caller must close it. */
+    static ObjectStore open(File gitletDir) {
+        return new ObjectStore(gitletDir);
+    }
+
+    /** Close my packs.  They are opened again if I am used again. */
+    synchronized void close() {
+        if (_packs != null) {
+            for (Pack pack : _packs) {
+                pack.close();
+            }
+            _packs = null;
+        }
+    }
+
+    /** Create the folders of a new, empty store. */
+    void init() {
+        _blobFolder.mkdir();
+        _commitFolder.mkdir();
+        _treeFolder.mkdir();
+        _packFolder.mkdir();
+        Config.read(_configFile).set(Config.LAYOUT, SHARDED);
+    }
+
+    /** Return the name of an object whose contents are CONTENTS. */
+    String hash(byte[] contents) {
+        return Utils.hash(_algorithm, contents);
+    }
+
+    /** Return the name of a blob whose contents are those of FILE, which
+     *  is read in constant memory. */
+    String hash(File file) {
+        return Utils.hash(_algorithm, file);
+    }
+
+    /** Return the length of my object names in bytes (half their length
+     *  as hexadecimal numerals). */
+    int idLength() {
+        return _idLength;
+    }
+
+    /** Return true iff I contain the object of type TYPE named ID. */
+    boolean contains(byte type, String id) {
+        if (!isObjectName(id)) {
+            return false;
+        }
+        for (Pack pack : packs()) {
+            int pos = pack.find(id);
+            if (pos >= 0 && pack.typeAt(pos) == type) {
+                return true;
+            }
+        }
+        return looseFile(type, id).isFile();
+    }
+
+    /** Return the contents of the object of type TYPE named ID.  Throws
+     *  IllegalArgumentException if there is no such object. */
+    byte[] read(byte type, String id) {
+        try (InputStream in = open(type, id)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream over the contents of the object of type TYPE named
+     *  ID, inflating them as they are read.  Throws
+     *  IllegalArgumentException if there is no such object. */
+    InputStream open(byte type, String id) {
+        return decode(type, id, openStored(type, id), true);
+    }
+
+    /** Return a stream over the contents of the object of type TYPE named
+     *  ID whose stored form is STORED, caching them if they are rebuilt
+     *  from a delta and CACHE is true. */
+    private InputStream decode(byte type, String id, InputStream stored,
+                               boolean cache) {
+        try {
+            int tag = stored.read();
+            if (tag == STORED) {
+                return stored;
+            } else if (tag == DEFLATED) {
+                return new InflaterInputStream(stored);
+            } else if (tag == DELTA) {
+                try (DataInputStream in = new DataInputStream(stored)) {
+                    in.readByte();
+                    String baseId = in.readUTF();
+                    byte[] delta = new InflaterInputStream(in).readAllBytes();
+                    byte[] contents = Delta.apply(readCached(type, baseId),
+                                                  delta);
+                    if (cache) {
+                        cache(id, contents);
+                    }
+                    return new ByteArrayInputStream(contents);
+                }
+            }
+            stored.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        throw new IllegalArgumentException("corrupt object " + id);
+    }
+
+    /** Copy the contents of the object of type TYPE named ID into the file
+     *  DEST, replacing it.  DEST is unlinked first rather than truncated,
+     *  since it may be a hard link to a blob.  Contents stored without
+     *  compression are copied by FileChannel.transferTo, without passing
+     *  through the heap.  If core.hardlinks is true, a blob is instead
+     *  hard-linked to a read-only raw copy kept in the store, where the
+     *  file system allows it. */
+    void copyTo(byte type, String id, File dest) {
+        try {
+            Files.deleteIfExists(dest.toPath());
+            if (type == BLOB && _hardlinks && link(id, dest)) {
+                return;
+            }
+            try (FileChannel out = FileChannel.open(dest.toPath(),
+                    StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                if (!transferStored(type, id, out)) {
+                    try (InputStream in = open(type, id)) {
+                        in.transferTo(Channels.newOutputStream(out));
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Store CONTENTS as the object of type TYPE named ID, unless it is
+     *  already present. */
+    void write(byte type, String id, byte[] contents) {
+        write(type, id, contents, null);
+    }
+
+    /** Store CONTENTS as the object of type TYPE named ID, unless it is
+     *  already present.  If BASEID is not null, the object may be stored
+     *  as a delta against the object of type TYPE named BASEID. */
+    void write(byte type, String id, byte[] contents, String baseId) {
+        if (contains(type, id)) {
+            return;
+        }
+        byte[] stored = null;
+        if (_level != 0) {
+            stored = deflate(DEFLATED, contents);
+        }
+        if (stored == null || stored.length > contents.length) {
+            stored = new byte[contents.length + 1];
+            stored[0] = STORED;
+            System.arraycopy(contents, 0, stored, 1, contents.length);
+        }
+        if (baseId != null && !baseId.equals(id)
+                && contents.length <= MAX_DELTA_SIZE
+                && contains(type, baseId)) {
+            int depth = deltaDepth(type, baseId) + 1;
+            if (depth <= _maxDepth) {
+                byte[] base = readCached(type, baseId);
+                if (base.length <= MAX_DELTA_SIZE) {
+                    byte[] delta = deltaHeader(depth, baseId,
+                            deflate((byte) -1, Delta.create(base, contents)));
+                    if (delta.length < stored.length) {
+                        stored = delta;
+                    }
+                }
+            }
+        }
+        File dest = looseFile(type, id);
+        dest.getParentFile().mkdirs();
+        Utils.writeContentsAtomic(dest, stored);
+    }
+
+    /** Store the contents of FILE as the object of type TYPE named ID,
+     *  unless it is already present.  If BASEID is not null, the object
+     *  may be stored as a delta against the object of type TYPE named
+     *  BASEID.  A file too large to be stored as a delta is streamed
+     *  into the store, so that it need not fit in memory. */
+    void write(byte type, String id, File file, String baseId) {
+        if (file.length() <= MAX_DELTA_SIZE) {
+            write(type, id, Utils.readContents(file), baseId);
+            return;
+        }
+        if (contains(type, id)) {
+            return;
+        }
+        File dest = looseFile(type, id);
+        dest.getParentFile().mkdirs();
+        File temp = Utils.tempFileFor(dest);
+        Deflater deflater = new Deflater(_level);
+        try (InputStream in = new FileInputStream(file);
+             OutputStream stored = Files.newOutputStream(temp.toPath())) {
+            if (_level == 0) {
+                stored.write(STORED);
+                in.transferTo(stored);
+            } else {
+                stored.write(DEFLATED);
+                OutputStream out = new DeflaterOutputStream(stored,
+                        deflater, BUFFER_SIZE);
+                in.transferTo(out);
+                out.close();
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+        if (!temp.renameTo(dest)) {
+            temp.delete();
+            throw new IllegalArgumentException("cannot store " + id);
+        }
+    }
+
+    /** Store the object of type TYPE named ID from the store FROM, unless
+     *  it is already present.  The object is copied in its stored form,
+     *  without inflating it. */
+    void copy(ObjectStore from, byte type, String id) {
+        if (contains(type, id)) {
+            return;
+        }
+        String baseId = from.deltaBase(type, id);
+        if (baseId != null) {
+            copy(from, type, baseId);
+        }
+        try (InputStream in = from.openStored(type, id)) {
+            writeStored(type, id, in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Store the object of type TYPE named ID, whose stored form (as
+     *  returned by openStored) is the rest of IN.  If it is a delta, its
+     *  base must already be present. */
+    void writeStored(byte type, String id, InputStream in) {
+        writeStored(type, id, in, false);
+    }
+
+    /** Store the object of type TYPE named ID, whose stored form is the
+     *  rest of IN, as writeStored does, after checking that its contents
+     *  hash to ID.  For objects from another repository that is not
+     *  trusted.  Throws IllegalArgumentException if they do not, or if
+     *  they cannot be read. */
+    void receive(byte type, String id, InputStream in) {
+        writeStored(type, id, in, true);
+    }
+
+    /** Store the object of type TYPE named ID, whose stored form is the
+     *  rest of IN, first checking that its contents hash to ID if
+     *  VERIFY. */
+    private void writeStored(byte type, String id, InputStream in,
+                             boolean verify) {
+        File dest = looseFile(type, id);
+        dest.getParentFile().mkdirs();
+        File temp = null;
+        try {
+            temp = Utils.tempFileFor(dest);
+            try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+                in.transferTo(out);
+            }
+            if (verify) {
+                String actual;
+                try (InputStream contents = decode(type, id,
+                         new FileInputStream(temp), false)) {
+                    actual = Utils.hash(_algorithm, contents);
+                }
+                if (!actual.equals(id)) {
+                    throw new IllegalArgumentException(
+                        "object " + id + " does not match its contents");
+                }
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            if (temp != null) {
+                temp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (!temp.renameTo(dest)) {
+            temp.delete();
+            throw new IllegalArgumentException("cannot store " + id);
+        }
+    }
+
+    /** Delete the loose object of type TYPE named ID, if there is one.
+     *  For objects received that turn out to be unusable. */
+    void discard(byte type, String id) {
+        looseFile(type, id).delete();
+    }
+
+    /** Return a stream over the stored form of the object of type TYPE
+     *  named ID: its encoding tag followed by its encoded contents. */
+    InputStream openStored(byte type, String id) {
+        for (Pack pack : packs()) {
+            int pos = pack.find(id);
+            if (pos >= 0 && pack.typeAt(pos) == type) {
+                return pack.open(pos);
+            }
+        }
+        try {
+            return new FileInputStream(looseFile(type, id));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("no such object " + id);
+        }
+    }
+
+    /** Return the length of the stored form of the object of type TYPE
+     *  named ID. */
+    long storedLength(byte type, String id) {
+        for (Pack pack : packs()) {
+            int pos = pack.find(id);
+            if (pos >= 0 && pack.typeAt(pos) == type) {
+                return pack.storedLength(pos);
+            }
+        }
+        return looseFile(type, id).length();
+    }
+
+    /** Return the names of all objects of type TYPE, in ascending
+     *  order. */
+    List<String> list(byte type) {
+        return list(type, "");
+    }
+
+    /** Return the names of all objects of type TYPE that start with
+     *  PREFIX, in ascending order. */
+    List<String> list(byte type, String prefix) {
+        TreeSet<String> ids =
+            new TreeSet<>(Utils.shardedNamesIn(folder(type), prefix));
+        for (Pack pack : packs()) {
+            for (int pos = 0; pos < pack.size(); pos += 1) {
+                if (pack.typeAt(pos) == type) {
+                    String id = pack.idAt(pos);
+                    if (id.startsWith(prefix)) {
+                        ids.add(id);
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /** Return at most LIMIT of the names of the commits that start with
+     *  PREFIX, in ascending order.  Packed commits are found by a binary
+     *  search of the commit index written by repack, and loose ones in
+     *  the one shard that can hold them (when PREFIX has at least two
+     *  digits). */
+    List<String> findCommits(String prefix, int limit) {
+        if (prefix.isEmpty() || prefix.length() > 2 * _idLength
+                || !isHex(prefix)) {
+            return new ArrayList<>();
+        }
+        TreeSet<String> ids =
+            new TreeSet<>(Utils.shardedNamesIn(_commitFolder, prefix));
+        CommitIndex index = commitIndex();
+        if (index != null) {
+            ids.addAll(index.withPrefix(prefix, limit));
+        } else if (!packs().isEmpty()) {
+            ids.addAll(list(COMMIT, prefix));
+        }
+        ArrayList<String> result = new ArrayList<>(ids);
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    /** Return the pack written by the last repack, or null if there is
+     *  none.  Objects written since are loose. */
+    Pack lastPack() {
+        List<Pack> packs = packs();
+        return packs.size() == 1 ? packs.get(0) : null;
+    }
+
+    /** Move every object, loose or packed, into a single new pack, then
+     *  delete the loose objects and old packs.  Returns the number of
+     *  objects in the new pack. */
+    int repack() {
+        TreeMap<String, Byte> all = new TreeMap<>();
+        for (byte type : TYPES) {
+            for (String id : list(type)) {
+                all.put(id, type);
+            }
+        }
+        ArrayList<String> commits = new ArrayList<>();
+        for (Map.Entry<String, Byte> entry : all.entrySet()) {
+            if (entry.getValue() == COMMIT) {
+                commits.add(entry.getKey());
+            }
+        }
+        List<String> ids = new ArrayList<>(all.keySet());
+        byte[] types = new byte[ids.size()];
+        for (int i = 0; i < types.length; i += 1) {
+            types[i] = all.get(ids.get(i));
+        }
+        List<Pack> oldPacks = packs();
+        File idxFile = Pack.write(_packFolder, ids, types, this);
+        for (Pack pack : oldPacks) {
+            if (!idxFile.getName().equals(pack.getIdxName())) {
+                pack.delete();
+            }
+        }
+        pruneRawFiles();
+        for (byte type : TYPES) {
+            for (String id : Utils.shardedNamesIn(folder(type), "")) {
+                looseFile(type, id).delete();
+            }
+            String[] shards = folder(type).list();
+            if (shards != null) {
+                for (String shard : shards) {
+                    Utils.join(folder(type), shard).delete();
+                }
+            }
+        }
+        _packs = null;
+        CommitIndex.write(_commitIndexFile, commits, _idLength);
+        _commitIndex = null;
+        return ids.size();
+    }
+
+    /** If the object of type TYPE named ID is stored without compression,
+     *  copy its contents into OUT straight from the file that holds it,
+     *  and return true.  Otherwise, return false. */
+    private boolean transferStored(byte type, String id, FileChannel out)
+        throws IOException {
+        for (Pack pack : packs()) {
+            int pos = pack.find(id);
+            if (pos >= 0 && pack.typeAt(pos) == type) {
+                try (InputStream in = pack.open(pos)) {
+                    if (in.read() != STORED) {
+                        return false;
+                    }
+                }
+                pack.transferTo(pos, 1, out);
+                return true;
+            }
+        }
+        try (FileChannel in = FileChannel.open(looseFile(type, id)
+                                               .toPath())) {
+            ByteBuffer tag = ByteBuffer.allocate(1);
+            if (in.read(tag, 0) != 1 || tag.get(0) != STORED) {
+                return false;
+            }
+            long size = in.size();
+            for (long pos = 1; pos < size; ) {
+                pos += in.transferTo(pos, size - pos, out);
+            }
+            return true;
+        }
+    }
+
+    /** Make DEST a hard link to a read-only file holding the contents of
+     *  the blob named ID, creating that file beside the blob's loose file
+     *  if needed.  Returns false if the file system does not support the
+     *  link.  Since the working file and the raw file are then one file,
+     *  the working file is read-only too: an editor must replace it
+     *  rather than write into it, and Gitlet itself unlinks working files
+     *  before writing them.  A raw file is made with the modification
+     *  time RAW_TIME; one that has since been written into (through a
+     *  working file made writable) is set aside and made afresh. */
+    private boolean link(String id, File dest) throws IOException {
+        File raw = new File(looseFile(BLOB, id).getPath() + RAW_SUFFIX);
+        if (raw.isFile() && raw.lastModified() != RAW_TIME) {
+            raw.delete();
+        }
+        if (!raw.isFile()) {
+            raw.getParentFile().mkdirs();
+            Path temp = Files.createTempFile(raw.getParentFile().toPath(),
+                                             raw.getName() + ".", ".lock");
+            try {
+                try (FileChannel out = FileChannel.open(temp,
+                        StandardOpenOption.WRITE)) {
+                    if (!transferStored(BLOB, id, out)) {
+                        try (InputStream in = open(BLOB, id)) {
+                            in.transferTo(Channels.newOutputStream(out));
+                        }
+                    }
+                }
+                temp.toFile().setReadOnly();
+                temp.toFile().setLastModified(RAW_TIME);
+                Files.createLink(raw.toPath(), temp);
+            } catch (FileAlreadyExistsException excp) {
+                /* Made at the same time by another thread. */
+            } catch (UnsupportedOperationException excp) {
+                return false;
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        try {
+            Files.createLink(dest.toPath(), raw.toPath());
+            return true;
+        } catch (IOException | UnsupportedOperationException excp) {
+            return false;
+        }
+    }
+
+    /** Delete the raw files of blobs (see link) that no working file is
+     *  linked to any longer. */
+    private void pruneRawFiles() {
+        String[] shards = _blobFolder.list();
+        if (shards == null) {
+            return;
+        }
+        for (String shard : shards) {
+            File[] files = Utils.join(_blobFolder, shard).listFiles(
+                (dir, name) -> name.endsWith(RAW_SUFFIX));
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                try {
+                    Object links = Files.getAttribute(file.toPath(),
+                                                      "unix:nlink");
+                    if (links instanceof Integer count && count <= 1) {
+                        file.delete();
+                    }
+                } catch (IOException | UnsupportedOperationException
+                         | IllegalArgumentException excp) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Return the name of the base of the object of type TYPE named ID
+     *  if it is stored as a delta, and otherwise null. */
+    String deltaBase(byte type, String id) {
+        try (DataInputStream in =
+                 new DataInputStream(openStored(type, id))) {
+            if (in.readByte() != DELTA) {
+                return null;
+            }
+            in.readByte();
+            return in.readUTF();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the length of the delta chain of the object of type TYPE
+     *  named ID: 0 if it is not stored as a delta. */
+    private int deltaDepth(byte type, String id) {
+        try (DataInputStream in =
+                 new DataInputStream(openStored(type, id))) {
+            return in.readByte() == DELTA ? in.readByte() : 0;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the contents of the object of type TYPE named ID, using and
+     *  updating the cache of rebuilt objects. */
+    private byte[] readCached(byte type, String id) {
+        byte[] contents;
+        synchronized (_cache) {
+            contents = _cache.get(id);
+        }
+        if (contents == null) {
+            contents = read(type, id);
+            cache(id, contents);
+        }
+        return contents;
+    }
+
+    /** Add CONTENTS, the contents of the object named ID, to the cache of
+     *  rebuilt objects, evicting the least recently used objects as
+     *  needed. */
+    private void cache(String id, byte[] contents) {
+        synchronized (_cache) {
+            if (contents.length > MAX_DELTA_SIZE
+                    || _cache.containsKey(id)) {
+                return;
+            }
+            _cache.put(id, contents);
+            _cacheBytes += contents.length;
+            Iterator<Map.Entry<String, byte[]>> eldest =
+                _cache.entrySet().iterator();
+            while (_cacheBytes > CACHE_SIZE) {
+                _cacheBytes -= eldest.next().getValue().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    /** Return TAG followed by CONTENTS deflated at my compression level,
+     *  or just the deflated CONTENTS if TAG is negative. */
+    private byte[] deflate(byte tag, byte[] contents) {
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        if (tag >= 0) {
+            stored.write(tag);
+        }
+        Deflater deflater = new Deflater(_level);
+        try (OutputStream out = new DeflaterOutputStream(stored,
+                deflater, BUFFER_SIZE)) {
+            out.write(contents);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+        return stored.toByteArray();
+    }
+
+    /** Return the stored form of a delta of chain length DEPTH against
+     *  the object BASEID, whose deflated instructions are DELTA. */
+    private static byte[] deltaHeader(int depth, String baseId,
+                                      byte[] delta) {
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(stored)) {
+            out.writeByte(DELTA);
+            out.writeByte(depth);
+            out.writeUTF(baseId);
+            out.write(delta);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return stored.toByteArray();
+    }
+
+    /** Return the loose file of the object of type TYPE named ID. */
+    private File looseFile(byte type, String id) {
+        return Utils.shardedFile(folder(type), id);
+    }
+
+    /** Return true iff ID could name an object: a hexadecimal numeral
+     *  with two digits per byte, longer than a shard name. */
+    private static boolean isObjectName(String id) {
+        return id.length() > Utils.SHARD_LENGTH && id.length() % 2 == 0
+            && isHex(id);
+    }
+
+    /** Return true iff S consists of lower-case hexadecimal digits. */
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return my commit index, or null if there is none. */
+    private synchronized CommitIndex commitIndex() {
+        if (_commitIndex == null) {
+            _commitIndex = CommitIndex.read(_commitIndexFile);
+        }
+        return _commitIndex;
+    }
+
+    /** Move the loose objects stored directly in FOLDER, as they were
+     *  before sharding, into their shards. */
+    private static void shard(File folder) {
+        List<String> names = Utils.plainFilenamesIn(folder);
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (name.indexOf('.') >= 0 || !isObjectName(name)) {
+                continue;
+            }
+            File dest = Utils.shardedFile(folder, name);
+            dest.getParentFile().mkdir();
+            if (!Utils.join(folder, name).renameTo(dest)) {
+                throw new IllegalArgumentException("cannot move " + name);
+            }
+        }
+    }
+
+    /** Return the folder of loose objects of type TYPE. */
+    private File folder(byte type) {
+        switch (type) {
+        case BLOB:
+            return _blobFolder;
+        case TREE:
+            return _treeFolder;
+        default:
+            return _commitFolder;
+        }
+    }
+
+    /** Return my packs, opening them on first use. */
+    private synchronized List<Pack> packs() {
+        if (_packs == null) {
+            _packs = new ArrayList<>();
+            String[] names = _packFolder.list();
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        _packs.add(new Pack(Utils.join(_packFolder, name)));
+                    }
+                }
+            }
+        }
+        return _packs;
+    }
+
+    /** The stores already opened, by absolute .gitlet directory. */
+    private static final HashMap<File, ObjectStore> STORES = new HashMap<>();
+
+    /** Folder of loose blobs. */
+    private final File _blobFolder;
+
+    /** Folder of loose commits. */
+    private final File _commitFolder;
+
+    /** Folder of loose trees. */
+    private final File _treeFolder;
+
+    /** Folder of packs. */
+    private final File _packFolder;
+
+    /** The repository's settings file. */
+    private final File _configFile;
+
+    /** The index of packed commit ids. */
+    private final File _commitIndexFile;
+
+    /** The index of packed commit ids, or null if not yet opened. */
+    private CommitIndex _commitIndex;
+
+    /** The compression level of newly stored objects. */
+    private final int _level;
+
+    /** The longest delta chain to create. */
+    private final int _maxDepth;
+
+    /** The name of the digest algorithm that names my objects. */
+    private final String _algorithm;
+
+    /** Length of my object names, in bytes. */
+    private final int _idLength;
+
+    /** True iff blobs are hard-linked into working trees. */
+    private final boolean _hardlinks;
+
+    /** Recently rebuilt or read objects, by name, least recently used
+     *  first. */
+    private final LinkedHashMap<String, byte[]> _cache =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Total size of the objects in _cache.  Guarded, like _cache, by
+     *  _cache's lock. */
+    private long _cacheBytes;
+
+    /** My packs, or null if not yet opened. */
+    private List<Pack> _packs;
+}
@@ -0,0 +1,364 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/** A pack: many repository objects concatenated into a single pack file,
+ *  together with an index file that locates each of them.
+ *
+ *  The pack file is the magic number PACK_MAGIC, a format version and
+ *  an object count, followed by one record per object: a type byte, the
+ *  length of the stored contents as an 8-byte integer, and the stored
+ *  contents, exactly as they would appear in a loose object file.
+ *
+ *  The index file is the magic number IDX_MAGIC, a format version, the
+ *  length in bytes of an object id and the object count, followed by a
+ *  256-entry fan-out table whose entry B is the number of objects whose
+ *  id's first byte is at most B, then the raw ids in ascending order,
+ *  the type of each object, and the offset of each object's record in
+ *  the pack file.  The index is memory-mapped, so that an object is
+ *  found by a binary search confined to one fan-out bucket without
+ *  reading the index into the heap.
+ *  @author Stephen Ip
+ */
+class Pack {
+
+    /** Magic number at the start of a pack file. */
+    private static final int PACK_MAGIC = 0x5041434b;
+
+    /** Magic number at the start of a pack index file. */
+    private static final int IDX_MAGIC = 0x47494458;
+
+    /** Version of the pack and index formats. */
+    private static final int VERSION = 1;
+
+    /** Size of the index file header, in bytes. */
+    private static final int IDX_HEADER = 16;
+
+    /** Size of the fan-out table, in bytes. */
+    private static final int FANOUT = 256 * 4;
+
+    /** Size of the header of each object record in a pack, in bytes. */
+    private static final int RECORD_HEADER = 9;
+
+    /** The pack whose index is IDXFILE. */
+    Pack(File idxFile) {
+        String name = idxFile.getName();
+        _packFile = Utils.join(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length())
+                + ".pack");
+        try (FileChannel idx = FileChannel.open(idxFile.toPath())) {
+            _idx = idx.map(FileChannel.MapMode.READ_ONLY, 0, idx.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_idx.getInt(0) != IDX_MAGIC || _idx.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("bad pack index "
+                    + idxFile);
+        }
+        _idLength = _idx.getInt(8);
+        _size = _idx.getInt(12);
+        _typesStart = IDX_HEADER + FANOUT + _size * _idLength;
+        _offsetsStart = _typesStart + _size;
+    }
+
+    /** Return the number of objects in this pack. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the id of the object at position POS, in id order. */
+    String idAt(int pos) {
+        byte[] raw = new byte[_idLength];
+        _idx.get(IDX_HEADER + FANOUT + pos * _idLength, raw);
+        return Utils.toHex(raw);
+    }
+
+    /** Return the type of the object at position POS. */
+    byte typeAt(int pos) {
+        return _idx.get(_typesStart + pos);
+    }
+
+    /** Return the length of the stored contents of the object at
+     *  position POS. */
+    long storedLength(int pos) {
+        long offset = _idx.getLong(_offsetsStart + 8 * pos);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+            readFully(channel(), header, offset);
+            return header.getLong(1);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the position of the object named ID in this pack, or -1 if
+     *  it is not here. */
+    int find(String id) {
+        byte[] raw = Utils.fromHex(id);
+        if (raw.length != _idLength) {
+            return -1;
+        }
+        int first = raw[0] & 0xff;
+        int lo = first == 0 ? 0 : _idx.getInt(IDX_HEADER + 4 * (first - 1));
+        int hi = _idx.getInt(IDX_HEADER + 4 * first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, raw);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Return a stream over the stored contents of the object at
+     *  position POS. */
+    InputStream open(int pos) {
+        long offset = _idx.getLong(_offsetsStart + 8 * pos);
+        try {
+            FileChannel pack = channel();
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+            readFully(pack, header, offset);
+            return new RegionInputStream(pack, offset + RECORD_HEADER,
+                                         header.getLong(1));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copy the stored contents of the object at position POS, less
+     *  their first SKIP bytes, into OUT, directly from the pack file. */
+    void transferTo(int pos, long skip, WritableByteChannel out)
+        throws IOException {
+        long offset = _idx.getLong(_offsetsStart + 8 * pos);
+        FileChannel pack = channel();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        readFully(pack, header, offset);
+        long start = offset + RECORD_HEADER + skip;
+        long end = offset + RECORD_HEADER + header.getLong(1);
+        while (start < end) {
+            start += pack.transferTo(start, end - start, out);
+        }
+    }
+
+    /** Return the name of my index file. */
+    String getIdxName() {
+        return idxFile(_packFile).getName();
+    }
+
+    /** Return the file holding the reachability bitmaps of this pack
+     *  (see Reachability), which may not exist. */
+    File getBitmapFile() {
+        String name = _packFile.getName();
+        return new File(_packFile.getParentFile(),
+                        name.substring(0, name.length() - ".pack".length())
+                        + ".bitmap");
+    }
+
+    /** Delete this pack, its index and its bitmaps. */
+    void delete() {
+        close();
+        _packFile.delete();
+        idxFile(_packFile).delete();
+        getBitmapFile().delete();
+    }
+
+    /** Release the open pack file, if any. */
+    synchronized void close() {
+        if (_pack != null) {
+            try {
+                _pack.close();
+            } catch (IOException excp) {
+                /* Ignore: nothing was written. */
+            }
+            _pack = null;
+        }
+    }
+
+    /** Write the objects IDS, which must be in ascending order and have
+     *  types TYPES, read from STORE, into a new pack in the directory
+     *  FOLDER.  The pack is named after the hash of its ids.  Returns the
+     *  index file of the new pack. */
+    static File write(File folder, List<String> ids, byte[] types,
+                      ObjectStore store) {
+        int n = ids.size();
+        int idLength = store.idLength();
+        String name = "pack-" + Utils.sha1(String.join("", ids));
+        File packFile = Utils.join(folder, name + ".pack");
+        File tempPack = Utils.tempFileFor(packFile);
+        long[] offsets = new long[n];
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        tempPack.toPath())))) {
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            long offset = 12;
+            for (int i = 0; i < n; i += 1) {
+                offsets[i] = offset;
+                long length = store.storedLength(types[i], ids.get(i));
+                out.writeByte(types[i]);
+                out.writeLong(length);
+                try (InputStream in = store.openStored(types[i],
+                                                       ids.get(i))) {
+                    in.transferTo(out);
+                }
+                offset += RECORD_HEADER + length;
+            }
+        } catch (IOException excp) {
+            tempPack.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        File idxFile = idxFile(packFile);
+        File tempIdx = Utils.tempFileFor(idxFile);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        tempIdx.toPath())))) {
+            out.writeInt(IDX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(idLength);
+            out.writeInt(n);
+            int[] fanout = new int[256];
+            for (String id : ids) {
+                fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+            }
+            int total = 0;
+            for (int count : fanout) {
+                total += count;
+                out.writeInt(total);
+            }
+            for (String id : ids) {
+                out.write(Utils.fromHex(id));
+            }
+            out.write(types, 0, n);
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+        } catch (IOException excp) {
+            tempPack.delete();
+            tempIdx.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tempPack.toPath(), packFile.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempIdx.toPath(), idxFile.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return idxFile;
+    }
+
+    /** Return the index file of the pack file PACKFILE. */
+    private static File idxFile(File packFile) {
+        String name = packFile.getName();
+        return Utils.join(packFile.getParentFile(),
+                name.substring(0, name.length() - ".pack".length())
+                + ".idx");
+    }
+
+    /** Compare the id at position POS with RAW, as unsigned bytes. */
+    private int compareAt(int pos, byte[] raw) {
+        int base = IDX_HEADER + FANOUT + pos * _idLength;
+        for (int i = 0; i < _idLength; i += 1) {
+            int cmp = (_idx.get(base + i) & 0xff) - (raw[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the open pack file, opening it if needed. */
+    private synchronized FileChannel channel() throws IOException {
+        if (_pack == null) {
+            _pack = FileChannel.open(_packFile.toPath(),
+                                     StandardOpenOption.READ);
+        }
+        return _pack;
+    }
+
+    /** Fill BUF from CHANNEL starting at POSITION. */
+    private static void readFully(FileChannel channel, ByteBuffer buf,
+                                  long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) {
+                throw new IOException("truncated pack");
+            }
+        }
+    }
+
+    /** A stream over part of a file, read with positional reads so that
+     *  several streams may share one channel. */
+    private static class RegionInputStream extends InputStream {
+
+        /** A stream over the LENGTH bytes of CHANNEL starting at
+         *  POSITION. */
+        RegionInputStream(FileChannel channel, long position, long length) {
+            _channel = channel;
+            _position = position;
+            _end = position + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (_position >= _end) {
+                return -1;
+            }
+            len = (int) Math.min(len, _end - _position);
+            int n = _channel.read(ByteBuffer.wrap(buf, off, len), _position);
+            if (n < 0) {
+                throw new IOException("truncated pack");
+            }
+            _position += n;
+            return n;
+        }
+
+        /** The underlying file. */
+        private final FileChannel _channel;
+        /** Current position and end of the region in the file. */
+        private long _position, _end;
+    }
+
+    /** The pack file. */
+    private final File _packFile;
+
+    /** The memory-mapped index file. */
+    private final MappedByteBuffer _idx;
+
+    /** Length of an object id, in bytes. */
+    private final int _idLength;
+
+    /** Number of objects in the pack. */
+    private final int _size;
+
+    /** Offsets in the index of the type and offset tables. */
+    private final int _typesStart, _offsetsStart;
+
+    /** The open pack file, or null if not yet opened. */
+    private FileChannel _pack;
+}
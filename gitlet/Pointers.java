@@ -1,54 +1,108 @@
 package gitlet;
 
 import java.io.File;
-import java.io.Serializable;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
-public class Pointers implements Serializable {
+/** The branch pointers of a repository: a mapping of branch names to the
+ *  ids of the commits they point at, plus the name of the current head.
+ *  The pointers file is plain text: the head branch name on the first
+ *  line, followed by one "COMMIT-ID BRANCH-NAME" line per branch.
+ *  @author Stephen Ip
+ */
+public class Pointers {
 
-    public Pointers() {
-        _pointers = new HashMap<>();
+    /** A new, empty set of pointers stored in FILE. */
+    public Pointers(File file) {
+        _file = file;
+        _pointers = new TreeMap<>();
         _head = null;
-        File commitFile = Utils.join(Main.COMMIT_FOLDER, "pointers");
-        Utils.writeObject(commitFile, this);
+        write();
     }
 
-    public HashMap<String, Commit> getPointers() {
+    /** The pointers read from FILE. */
+    private Pointers(File file, String head, TreeMap<String, String> ptrs) {
+        _file = file;
+        _head = head;
+        _pointers = ptrs;
+    }
+
+    /** Return the pointers stored in FILE. */
+    public static Pointers read(File file) {
+        String[] lines = Utils.readContentsAsString(file).split("\n");
+        String head = lines[0].isEmpty() ? null : lines[0];
+        TreeMap<String, String> pointers = new TreeMap<>();
+        for (int i = 1; i < lines.length; i += 1) {
+            int space = lines[i].indexOf(' ');
+            if (space > 0) {
+                pointers.put(lines[i].substring(space + 1),
+                        lines[i].substring(0, space));
+            }
+        }
+        return new Pointers(file, head, pointers);
+    }
+
+    /** Return the mapping of branch names to commit ids, in branch name
+     *  order. */
+    public Map<String, String> getPointers() {
         return _pointers;
     }
 
-    public void setPointer(String name, Commit commit) {
-        _pointers.put(name, commit);
-        File commitFile = Utils.join(Main.COMMIT_FOLDER, "pointers");
-        Utils.writeObject(commitFile, this);
+    public void setPointer(String name, String commitId) {
+        _pointers.put(name, commitId);
+        write();
     }
 
-    public Commit getCommit(String name) {
+    public String getCommitId(String name) {
         return _pointers.get(name);
     }
 
+    /** Return the commit that branch NAME points at, or null if there is
+     *  no such branch. */
+    public Commit getCommit(String name) {
+        String commitId = _pointers.get(name);
+        return commitId == null ? null
+                : Commit.load(ObjectStore.of(_file.getParentFile()), commitId);
+    }
+
     public void rmPointer(String name) {
         _pointers.remove(name);
-        File commitFile = Utils.join(Main.COMMIT_FOLDER, "pointers");
-        Utils.writeObject(commitFile, this);
+        write();
     }
 
     public void setHead(String name) {
         _head = name;
-        File commitFile = Utils.join(Main.COMMIT_FOLDER, "pointers");
-        Utils.writeObject(commitFile, this);
+        write();
     }
 
-    public Commit getHeadCommit() {
+    public String getHeadCommitId() {
         return _pointers.get(_head);
     }
 
+    public Commit getHeadCommit() {
+        return getCommit(_head);
+    }
+
     public String getHead() {
         return _head;
     }
 
-    /** A mapping of branch names to commit objects. */
-    private HashMap<String, Commit> _pointers;
+    /** Atomically replace the contents of my file with my pointers. */
+    private void write() {
+        StringBuilder contents = new StringBuilder();
+        contents.append(_head == null ? "" : _head).append('\n');
+        for (Map.Entry<String, String> entry : _pointers.entrySet()) {
+            contents.append(entry.getValue()).append(' ')
+                    .append(entry.getKey()).append('\n');
+        }
+        Utils.writeContentsAtomic(_file, contents.toString());
+    }
+
+    /** The file these pointers are stored in. */
+    private final File _file;
+
+    /** A mapping of branch names to commit ids. */
+    private final TreeMap<String, String> _pointers;
 
     /** The name of the pointer that is currently the head. */
     private String _head;
@@ -0,0 +1,249 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/** The pack protocol spoken between a Client and a Server, by which a
+ *  client fetches objects from, or pushes them to, a repository served
+ *  by gitlet serve.  A connection carries one exchange:
+ *
+ *  1. The client sends MAGIC and VERSION as ints, then a frame holding
+ *     the path of the repository and the length in bytes of its object
+ *     ids.
+ *  2. The server answers with a frame holding OK and its branches (their
+ *     number, then the name and commit id of each), or ERROR and a
+ *     message.
+ *  3. The client sends a frame holding FETCH, the id of the commit it
+ *     wants and the ids of commits it has, or one holding PUSH, a branch
+ *     name, whether the client saw the branch, the commit id it saw
+ *     there if so, and the commit id the branch is to take.  A client
+ *     with nothing to do closes the connection instead.
+ *  4. The objects needed follow, from the server for a fetch and from
+ *     the client for a push, in one stream in which each object comes
+ *     after those it refers to.
+ *  5. After a push, the server answers with a frame holding OK, or
+ *     ERROR and a message.
+ *
+ *  A frame is its length as an int, followed by fields in the encoding
+ *  of Codec.  In a stream, each object is its type byte, its raw id, and
+ *  the length (as a long) and bytes of its stored form, so that objects
+ *  go from store to store without being recompressed; a zero byte ends
+ *  the stream.  The receiver checks each object against its id, and
+ *  that everything the objects refer to is present, before using
+ *  them.
+ *  @author Stephen Ip
+ */
+class Protocol {
+
+    /** Magic number that starts a connection. */
+    static final int MAGIC = 0x474c5450;
+
+    /** Version of the protocol. */
+    static final int VERSION = 1;
+
+    /** TCP port of a server whose URL names none. */
+    static final int DEFAULT_PORT = 9418;
+
+    /** Status of a request that succeeded. */
+    static final int OK = 0;
+
+    /** Status of a request that failed. */
+    static final int ERROR = 1;
+
+    /** Request for the objects needed by a commit. */
+    static final int FETCH = 1;
+
+    /** Request to move a branch, followed by the objects it needs. */
+    static final int PUSH = 2;
+
+    /** Largest length of a frame, in bytes. */
+    private static final int MAX_FRAME = 1 << 26;
+
+    /** Write the fields in FRAME to OUT as a frame. */
+    static void writeFrame(DataOutputStream out, Codec.Encoder frame)
+        throws IOException {
+        byte[] bytes = frame.toByteArray();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Return a decoder over the fields of the next frame from IN. */
+    static Codec.Decoder readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME) {
+            throw new IOException("bad frame length");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new Codec.Decoder(bytes);
+    }
+
+    /** Write the object of type TYPE named ID in STORE to OUT, as part of
+     *  a stream of objects, unless it is in SENT, adding it to SENT.  An
+     *  object stored as a delta goes after its base, in the same way. */
+    static void writeObject(DataOutputStream out, ObjectStore store,
+                            byte type, String id, Set<String> sent)
+        throws IOException {
+        if (!sent.add(id)) {
+            return;
+        }
+        String baseId = store.deltaBase(type, id);
+        if (baseId != null) {
+            writeObject(out, store, type, baseId, sent);
+        }
+        out.writeByte(type);
+        out.write(Utils.fromHex(id));
+        out.writeLong(store.storedLength(type, id));
+        try (InputStream stored = store.openStored(type, id)) {
+            stored.transferTo(out);
+        }
+    }
+
+    /** Write the end of a stream of objects to OUT. */
+    static void endObjects(DataOutputStream out) throws IOException {
+        out.writeByte(0);
+    }
+
+    /** Read a stream of objects from IN into STORE, skipping those that
+     *  STORE already holds.  Each object is checked against its id as it
+     *  is stored.  Returns the objects read, mapped to their types, in
+     *  the order read.  If the stream is cut short or holds a corrupt
+     *  object, the trees and commits read are discarded. */
+    static Map<String, Byte> readObjects(DataInputStream in,
+                                         ObjectStore store)
+        throws IOException {
+        LinkedHashMap<String, Byte> received = new LinkedHashMap<>();
+        byte[] raw = new byte[store.idLength()];
+        try {
+            for (byte type = in.readByte(); type != 0;
+                 type = in.readByte()) {
+                if (type != ObjectStore.BLOB && type != ObjectStore.TREE
+                    && type != ObjectStore.COMMIT) {
+                    throw new IOException("bad object type " + type);
+                }
+                in.readFully(raw);
+                String id = Utils.toHex(raw);
+                Limited stored = new Limited(in, in.readLong());
+                if (!store.contains(type, id)) {
+                    store.receive(type, id, stored);
+                    received.put(id, type);
+                }
+                stored.skipRest();
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            discard(store, received);
+            throw excp;
+        }
+        return received;
+    }
+
+    /** Discard from STORE the trees and commits among RECEIVED (as
+     *  returned by readObjects), so that no tree or commit in STORE lacks
+     *  what it refers to.  Blobs refer to nothing and are kept. */
+    static void discard(ObjectStore store, Map<String, Byte> received) {
+        received.forEach((id, type) -> {
+            if (type != ObjectStore.BLOB) {
+                store.discard(type, id);
+            }
+        });
+        Commit.forget(store);
+        Tree.forget(store);
+    }
+
+    /** Return true iff everything that the objects RECEIVED (as returned
+     *  by readObjects) refer to is in STORE.  Objects that STORE held
+     *  already are taken to be complete, so only the objects received
+     *  are read. */
+    static boolean complete(ObjectStore store, Map<String, Byte> received) {
+        for (Map.Entry<String, Byte> object : received.entrySet()) {
+            String id = object.getKey();
+            if (object.getValue() == ObjectStore.TREE) {
+                if (!Tree.complete(store, id)) {
+                    return false;
+                }
+            } else if (object.getValue() == ObjectStore.COMMIT) {
+                Commit commit = Commit.load(store, id);
+                for (String parent : new String[] {
+                        commit.getParentHash(),
+                        commit.getBranchParentHash() }) {
+                    if (parent != null
+                        && !store.contains(ObjectStore.COMMIT, parent)) {
+                        return false;
+                    }
+                }
+                if (!store.contains(ObjectStore.TREE, commit.getTreeId())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** The first bytes of a stream, which is left positioned after
+     *  them. */
+    private static class Limited extends FilterInputStream {
+
+        /** The next LENGTH bytes of IN. */
+        Limited(InputStream in, long length) throws IOException {
+            super(in);
+            if (length < 0) {
+                throw new IOException("bad object length");
+            }
+            _left = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (_left == 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            _left -= 1;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (_left == 0) {
+                return len == 0 ? 0 : -1;
+            }
+            int n = in.read(buf, off, (int) Math.min(len, _left));
+            if (n < 0) {
+                throw new EOFException();
+            }
+            _left -= n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /** Skip whatever of my bytes has not been read. */
+        void skipRest() throws IOException {
+            while (_left > 0) {
+                long n = in.skip(_left);
+                if (n <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException();
+                    }
+                    n = 1;
+                }
+                _left -= n;
+            }
+        }
+
+        /** Number of my bytes not yet read. */
+        private long _left;
+    }
+}
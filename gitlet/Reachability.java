@@ -0,0 +1,262 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/** Finds the objects reachable from commits of one repository: the
+ *  commits themselves, their ancestors, and the trees and blobs of all
+ *  of them.  Sets of objects are kept as bitmaps over the positions of
+ *  the objects in the repository's last pack, plus the ids of any other
+ *  (loose) objects, so that the objects reachable from one commit but
+ *  not from another are found with a bitmap and-not.
+ *
+ *  When the repository is repacked, the reachable set of each branch
+ *  tip is written next to the pack, in a file holding the magic number
+ *  MAGIC, a format version, the length in bytes of ids, the number of
+ *  objects in the pack and the number of tips, then for each tip its
+ *  raw id and its EwahBitmap.  A walk that reaches a tip with a bitmap
+ *  takes its bitmap and goes no further, so only the commits made since
+ *  the repack (and their new trees) are read.
+ *  @author Stephen Ip
+ */
+class Reachability {
+
+    /** Magic number at the start of a bitmap file. */
+    private static final int MAGIC = 0x47424d50;
+
+    /** Version of the bitmap file format. */
+    private static final int VERSION = 1;
+
+    /** Finds objects reachable in STORE, whose commit graph is GRAPH. */
+    Reachability(ObjectStore store, CommitGraph graph) {
+        _store = store;
+        _graph = graph;
+        _pack = store.lastPack();
+        if (_pack != null && _pack.getBitmapFile().isFile()) {
+            ByteBuffer in = ByteBuffer.wrap(
+                Utils.readContents(_pack.getBitmapFile()));
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IllegalArgumentException("bad bitmap file");
+            }
+            int idLength = in.getInt();
+            if (in.getInt() == _pack.size()) {
+                for (int count = in.getInt(); count > 0; count -= 1) {
+                    byte[] raw = new byte[idLength];
+                    in.get(raw);
+                    _bitmaps.put(Utils.toHex(raw), EwahBitmap.read(in));
+                }
+            }
+        }
+    }
+
+    /** Write the bitmaps of the commits TIPS for the last pack of STORE,
+     *  whose commit graph is GRAPH. */
+    static void write(ObjectStore store, CommitGraph graph,
+                      Collection<String> tips) {
+        Pack pack = store.lastPack();
+        if (pack == null) {
+            return;
+        }
+        Reachability walker = new Reachability(store, graph);
+        walker._bitmaps.clear();
+        LinkedHashMap<String, EwahBitmap> bitmaps = new LinkedHashMap<>();
+        for (String tip : tips) {
+            if (!bitmaps.containsKey(tip)) {
+                bitmaps.put(tip, walker.reachable(tip)._packed);
+            }
+        }
+        File file = pack.getBitmapFile();
+        File temp = Utils.tempFileFor(file);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        temp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(store.idLength());
+            out.writeInt(pack.size());
+            out.writeInt(bitmaps.size());
+            for (Map.Entry<String, EwahBitmap> entry : bitmaps.entrySet()) {
+                out.write(Utils.fromHex(entry.getKey()));
+                entry.getValue().write(out);
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the objects reachable from the commit COMMITID. */
+    ObjectSet reachable(String commitId) {
+        BitSet packed = new BitSet(_pack == null ? 0 : _pack.size());
+        LinkedHashMap<String, Byte> loose = new LinkedHashMap<>();
+        ArrayList<String> expand = new ArrayList<>();
+        BitSet seen = new BitSet(_graph.size());
+        int[] work = new int[16];
+        int top = 0;
+        work[top++] = _graph.position(commitId);
+        while (top > 0) {
+            int pos = work[--top];
+            if (pos < 0 || seen.get(pos)) {
+                continue;
+            }
+            seen.set(pos);
+            String id = _graph.idAt(pos);
+            EwahBitmap bitmap = _bitmaps.get(id);
+            if (bitmap != null) {
+                packed.or(bitmap.toBitSet());
+                continue;
+            }
+            add(ObjectStore.COMMIT, id, packed, loose);
+            expand.add(id);
+            if (top + 2 > work.length) {
+                work = Arrays.copyOf(work, 2 * work.length);
+            }
+            work[top++] = _graph.secondParent(pos);
+            work[top++] = _graph.firstParent(pos);
+        }
+        for (String id : expand) {
+            Tree.walk(_store, Commit.load(_store, id).getTreeId(),
+                      tree -> !has(tree, packed, loose),
+                      (type, objectId) -> add(type, objectId, packed, loose));
+        }
+        return new ObjectSet(EwahBitmap.of(packed), loose);
+    }
+
+    /** Return the objects reachable from the commit COMMITID that the
+     *  store LOCAL lacks, ordered so that each object comes after those
+     *  it refers to.  LOCAL is taken to hold everything below the commits
+     *  and trees it holds, as copying objects in this order ensures, so
+     *  the walk stops at them and costs time in proportion to the
+     *  objects that LOCAL lacks. */
+    ObjectSet missingFrom(ObjectStore local, String commitId) {
+        ArrayList<Integer> commits = new ArrayList<>();
+        BitSet seen = new BitSet(_graph.size());
+        ArrayList<Integer> work = new ArrayList<>();
+        work.add(_graph.position(commitId));
+        while (!work.isEmpty()) {
+            int pos = work.remove(work.size() - 1);
+            if (pos < 0 || seen.get(pos)
+                || local.contains(ObjectStore.COMMIT, _graph.idAt(pos))) {
+                continue;
+            }
+            seen.set(pos);
+            commits.add(pos);
+            work.add(_graph.secondParent(pos));
+            work.add(_graph.firstParent(pos));
+        }
+        commits.sort(Comparator.comparingInt(_graph::generation));
+        LinkedHashMap<String, Byte> result = new LinkedHashMap<>();
+        for (int pos : commits) {
+            Tree.walk(_store, Commit.load(_store, _graph.idAt(pos))
+                          .getTreeId(),
+                      tree -> !result.containsKey(tree)
+                          && !local.contains(ObjectStore.TREE, tree),
+                      (type, id) -> {
+                          if (type == ObjectStore.TREE
+                              || !result.containsKey(id)
+                                 && !local.contains(type, id)) {
+                              result.put(id, type);
+                          }
+                      });
+        }
+        for (int pos : commits) {
+            result.put(_graph.idAt(pos), ObjectStore.COMMIT);
+        }
+        return new ObjectSet(EwahBitmap.of(new BitSet()), result);
+    }
+
+    /** Return true iff the object named ID is in the set whose packed
+     *  objects are PACKED and whose other objects are LOOSE. */
+    private boolean has(String id, BitSet packed, Map<String, Byte> loose) {
+        int pos = _pack == null ? -1 : _pack.find(id);
+        return pos >= 0 ? packed.get(pos) : loose.containsKey(id);
+    }
+
+    /** Add the object of type TYPE named ID to the set whose packed
+     *  objects are PACKED and whose other objects are LOOSE.  Returns
+     *  false if it was already there. */
+    private boolean add(byte type, String id, BitSet packed,
+                        Map<String, Byte> loose) {
+        int pos = _pack == null ? -1 : _pack.find(id);
+        if (pos >= 0) {
+            if (packed.get(pos)) {
+                return false;
+            }
+            packed.set(pos);
+            return true;
+        }
+        return loose.put(id, type) == null;
+    }
+
+    /** A set of objects of the repository. */
+    class ObjectSet {
+
+        /** The set of the objects at the positions in PACKED in the last
+         *  pack, and the objects in LOOSE, whose types they give. */
+        ObjectSet(EwahBitmap packed, Map<String, Byte> loose) {
+            _packed = packed;
+            _loose = loose;
+        }
+
+        /** Return the objects in me but not in OTHER. */
+        ObjectSet without(ObjectSet other) {
+            LinkedHashMap<String, Byte> loose =
+                new LinkedHashMap<>(_loose);
+            loose.keySet().removeAll(other._loose.keySet());
+            return new ObjectSet(_packed.andNot(other._packed), loose);
+        }
+
+        /** Return the number of objects in me. */
+        int size() {
+            return _packed.cardinality() + _loose.size();
+        }
+
+        /** Call ACTION with the type and id of each of my objects: those
+         *  in the last pack by position, then the others in the order in
+         *  which they were found. */
+        void forEach(BiConsumer<Byte, String> action) {
+            _packed.forEach(pos -> action.accept(_pack.typeAt(pos),
+                                                 _pack.idAt(pos)));
+            _loose.forEach((id, type) -> action.accept(type, id));
+        }
+
+        /** My objects in the last pack, by position. */
+        private final EwahBitmap _packed;
+        /** My other objects, mapped to their types. */
+        private final Map<String, Byte> _loose;
+    }
+
+    /** The store searched. */
+    private final ObjectStore _store;
+
+    /** The commit graph of _store. */
+    private final CommitGraph _graph;
+
+    /** The last pack of _store, or null if there is none. */
+    private final Pack _pack;
+
+    /** The bitmaps of the tips of the last pack, by commit id. */
+    private final HashMap<String, EwahBitmap> _bitmaps = new HashMap<>();
+}
@@ -3,35 +3,98 @@ package gitlet;
 import java.io.File;
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
+/** The remotes of a repository: a mapping of remote names to the
+ *  locations of the repositories they name, which are either the paths
+ *  of their .gitlet directories or URLs of repositories served by
+ *  gitlet serve (see Client).  The remotes file holds a format version
+ *  byte and the number of remotes, followed by each remote's name and
+ *  location, in the encoding of Codec.  Remotes files written by earlier
+ *  versions with Java serialization can still be read.
+ *  @author Stephen Ip
+ */
 public class Remotes implements Serializable {
 
+    /** Identifies the Java-serialized form written by earlier versions,
+     *  which can still be read. */
+    private static final long serialVersionUID = -2913660834742507137L;
+
+    /** Version of the remotes file format. */
+    private static final int VERSION = 1;
+
+    /** A new, empty set of remotes, stored in the remotes file of the
+     *  current repository. */
     public Remotes() {
         _remotes = new HashMap<>();
-        File remotesFile = Utils.join(Main.GITLET_FOLDER, "remotes");
-        Utils.writeObject(remotesFile, this);
+        write();
+    }
+
+    /** The remotes REMOTES, read from the current repository. */
+    private Remotes(HashMap<String, String> remotes) {
+        _remotes = remotes;
     }
 
-    public HashMap<String, File> getRemotes() {
+    /** Return the remotes stored in FILE. */
+    public static Remotes read(File file) {
+        byte[] contents = Utils.readContents(file);
+        if (Codec.isSerialized(contents)) {
+            Remotes result = Utils.deserialize(contents, Remotes.class);
+            HashMap<String, String> remotes = new HashMap<>();
+            for (Map.Entry<?, ?> entry
+                     : ((Map<?, ?>) result._remotes).entrySet()) {
+                remotes.put(entry.getKey().toString(),
+                            entry.getValue().toString());
+            }
+            result._remotes = remotes;
+            return result;
+        }
+        Codec.Decoder in = new Codec.Decoder(contents);
+        if (in.readByte() != VERSION) {
+            throw new IllegalArgumentException("unknown remotes format");
+        }
+        HashMap<String, String> remotes = new HashMap<>();
+        for (int count = in.readInt(); count > 0; count -= 1) {
+            String name = in.readString();
+            remotes.put(name, in.readString());
+        }
+        return new Remotes(remotes);
+    }
+
+    public HashMap<String, String> getRemotes() {
         return _remotes;
     }
 
-    public void setRemote(String name, String directory) {
-        _remotes.put(name, new File(directory));
-        File remotesFile = Utils.join(Main.GITLET_FOLDER, "remotes");
-        Utils.writeObject(remotesFile, this);
+    public void setRemote(String name, String location) {
+        _remotes.put(name, location);
+        write();
     }
 
-    public File getDirectory(String name) {
+    /** Return the location of the remote NAME, or null if there is no
+     *  such remote. */
+    public String getLocation(String name) {
         return _remotes.get(name);
     }
 
     public void rmRemote(String name) {
         _remotes.remove(name);
-        File remotesFile = Utils.join(Main.GITLET_FOLDER, "remotes");
-        Utils.writeObject(remotesFile, this);
+        write();
+    }
+
+    /** Atomically replace the remotes file with my remotes. */
+    private void write() {
+        Codec.Encoder out = new Codec.Encoder();
+        out.writeByte(VERSION).writeVarint(_remotes.size());
+        for (Map.Entry<String, String> entry
+                : new TreeMap<>(_remotes).entrySet()) {
+            out.writeString(entry.getKey()).writeString(entry.getValue());
+        }
+        Utils.writeContentsAtomic(Utils.join(Main.GITLET_FOLDER, "remotes"),
+                                  out.toByteArray());
     }
 
-    /** The mapping of the name of a remote to its .gitlet directory. */
-    private HashMap<String, File> _remotes;
+    /** The mapping of the name of a remote to its location.  In files
+     *  written with Java serialization, locations are Files. */
+    private HashMap<String, String> _remotes;
 }
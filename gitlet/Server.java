@@ -0,0 +1,277 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** Serves the repositories below one directory to Clients, over TCP or
+ *  a Unix domain socket, speaking the Protocol.  A repository is named
+ *  by its path relative to that directory, which may be the path of its
+ *  .gitlet directory or of the directory holding it.  Connections are
+ *  handled on a bounded pool of threads, each reading the repository
+ *  afresh, so that it sees commits and repacks made since the server
+ *  started; pushes are applied one at a time.
+ *
+ *  For a fetch, the commits sent are those reachable from the commit
+ *  wanted but not from any commit the client has (see
+ *  CommitGraph.reachableOnly), oldest first.  With each commit go the
+ *  trees and blobs of its snapshot that differ from its first parent's
+ *  (see Tree.walkChanges): the client holds the rest, having either the
+ *  parent or the objects sent with it.
+ *  @author Stephen Ip
+ */
+class Server {
+
+    /** Largest number of connections handled at once. */
+    private static final int MAX_CONNECTIONS = 16;
+
+    /** A server for the repositories below ROOT. */
+    Server(File root) {
+        _root = root.getAbsoluteFile().toPath().normalize().toFile();
+    }
+
+    /** Listen at ADDRESS, which is either [HOST:]PORT, for TCP (HOST
+     *  defaulting to the loopback address), or the path of a Unix domain
+     *  socket, which must contain a '/'.  Connections are served until
+     *  the process ends.  Throws GitletException if ADDRESS cannot be
+     *  listened at. */
+    void serve(String address) {
+        ServerSocketChannel listener;
+        try {
+            if (address.indexOf('/') >= 0) {
+                File socket = new File(address);
+                listener = ServerSocketChannel.open(
+                        StandardProtocolFamily.UNIX);
+                listener.bind(UnixDomainSocketAddress.of(socket.toPath()));
+                socket.deleteOnExit();
+            } else {
+                listener = ServerSocketChannel.open();
+                listener.bind(tcpAddress(address));
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            throw Utils.error("Cannot listen at %s: %s", address,
+                              excp.getMessage());
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(MAX_CONNECTIONS);
+        try {
+            while (true) {
+                SocketChannel channel = listener.accept();
+                pool.execute(() -> handle(channel));
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot accept connections: %s",
+                              excp.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Return the TCP address [HOST:]PORT. */
+    private static SocketAddress tcpAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        String host = colon < 0 ? null : address.substring(0, colon);
+        int port;
+        try {
+            port = Integer.parseInt(address.substring(colon + 1));
+        } catch (NumberFormatException excp) {
+            throw new IllegalArgumentException("bad port");
+        }
+        return host == null
+            ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+            : new InetSocketAddress(host, port);
+    }
+
+    /** Carry out the exchange on CHANNEL.  A client that breaks the
+     *  protocol or goes away is dropped. */
+    private void handle(SocketChannel channel) {
+        ObjectStore store = null;
+        try (channel;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(
+                     Channels.newInputStream(channel)));
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(
+                             Channels.newOutputStream(channel)))) {
+            if (in.readInt() != Protocol.MAGIC
+                || in.readInt() != Protocol.VERSION) {
+                return;
+            }
+            Codec.Decoder hello = Protocol.readFrame(in);
+            File dir = repository(hello.readString());
+            if (dir == null) {
+                refuse(out, "Remote directory not found.");
+                return;
+            }
+            store = ObjectStore.open(dir);
+            if (hello.readInt() != store.idLength()) {
+                refuse(out, "That remote uses a different object format.");
+                return;
+            }
+            Map<String, String> branches =
+                Pointers.read(Utils.join(dir, "pointers")).getPointers();
+            Codec.Encoder refs = new Codec.Encoder();
+            refs.writeByte(Protocol.OK).writeVarint(branches.size());
+            for (Map.Entry<String, String> branch : branches.entrySet()) {
+                refs.writeString(branch.getKey()).writeId(branch.getValue());
+            }
+            Protocol.writeFrame(out, refs);
+            out.flush();
+            Codec.Decoder request;
+            try {
+                request = Protocol.readFrame(in);
+            } catch (EOFException excp) {
+                return;
+            }
+            switch (request.readByte()) {
+            case Protocol.FETCH -> fetch(request, dir, store, out);
+            case Protocol.PUSH -> push(request, dir, store, in, out);
+            default -> { }
+            }
+            out.flush();
+        } catch (IOException | IllegalArgumentException | GitletException
+                 excp) {
+            return;
+        } finally {
+            if (store != null) {
+                store.close();
+                Commit.forget(store);
+                Tree.forget(store);
+            }
+        }
+    }
+
+    /** Return the .gitlet directory of the repository at PATH below my
+     *  root, or null if there is none. */
+    private File repository(String path) {
+        File dir = new File(_root, path).toPath().normalize().toFile();
+        if (!dir.toPath().startsWith(_root.toPath())) {
+            return null;
+        }
+        if (!dir.getName().equals(".gitlet")) {
+            dir = Utils.join(dir, ".gitlet");
+        }
+        return Utils.join(dir, "pointers").isFile() ? dir : null;
+    }
+
+    /** Answer the fetch REQUEST for the repository whose .gitlet
+     *  directory is DIR and whose objects are STORE, writing the objects
+     *  to OUT. */
+    private void fetch(Codec.Decoder request, File dir, ObjectStore store,
+                       DataOutputStream out) throws IOException {
+        int length = store.idLength();
+        String want = request.readId(length);
+        CommitGraph graph = CommitGraph.read(dir, store);
+        ArrayList<Integer> haves = new ArrayList<>();
+        for (int count = request.readInt(); count > 0; count -= 1) {
+            String have = request.readId(length);
+            if (store.contains(ObjectStore.COMMIT, have)) {
+                haves.add(graph.position(have));
+            }
+        }
+        if (store.contains(ObjectStore.COMMIT, want)) {
+            HashSet<String> sent = new HashSet<>();
+            for (int pos : graph.reachableOnly(graph.position(want), haves)) {
+                int parent = graph.firstParent(pos);
+                String tree = Commit.load(store, graph.idAt(pos)).getTreeId(),
+                    baseTree = parent < 0 ? null
+                    : Commit.load(store, graph.idAt(parent)).getTreeId();
+                LinkedHashMap<String, Byte> changes = new LinkedHashMap<>();
+                Tree.walkChanges(store, tree, baseTree,
+                                 (type, id) -> changes.put(id, type));
+                for (Map.Entry<String, Byte> change : changes.entrySet()) {
+                    Protocol.writeObject(out, store, change.getValue(),
+                                         change.getKey(), sent);
+                }
+                Protocol.writeObject(out, store, ObjectStore.COMMIT,
+                                     graph.idAt(pos), sent);
+            }
+        }
+        Protocol.endObjects(out);
+    }
+
+    /** Carry out the push REQUEST for the repository whose .gitlet
+     *  directory is DIR and whose objects are STORE, reading the objects
+     *  from IN and answering on OUT. */
+    private void push(Codec.Decoder request, File dir, ObjectStore store,
+                      DataInputStream in, DataOutputStream out)
+        throws IOException {
+        int length = store.idLength();
+        String branch = request.readString();
+        String oldId = request.readByte() == 0 ? null : request.readId(length);
+        String newId = request.readId(length);
+        Map<String, Byte> received;
+        try {
+            received = Protocol.readObjects(in, store);
+        } catch (IllegalArgumentException excp) {
+            refuse(out, "Push sent a corrupt object.");
+            throw excp;
+        }
+        String error = update(dir, store, branch, oldId, newId, received);
+        if (error != null) {
+            refuse(out, error);
+        } else {
+            Protocol.writeFrame(out, new Codec.Encoder()
+                                .writeByte(Protocol.OK));
+        }
+    }
+
+    /** Index the messages of the commits among RECEIVED, the objects
+     *  newly stored in STORE, the objects of the repository whose .gitlet
+     *  directory is DIR, and move its branch BRANCH from OLDID (null if
+     *  it has no such branch) to NEWID.  Returns an error message if the
+     *  branch has moved since the client saw it, or if NEWID or anything
+     *  it needs is not present, and otherwise null. */
+    private synchronized String update(File dir, ObjectStore store,
+                                       String branch, String oldId,
+                                       String newId,
+                                       Map<String, Byte> received) {
+        if (!store.contains(ObjectStore.COMMIT, newId)
+            || !Protocol.complete(store, received)) {
+            Protocol.discard(store, received);
+            return "Push did not include its commits.";
+        }
+        MessageIndex messages = MessageIndex.read(dir, store);
+        if (messages != null) {
+            received.forEach((id, type) -> {
+                if (type == ObjectStore.COMMIT) {
+                    messages.add(id, Commit.load(store, id).getLogMessage());
+                }
+            });
+        }
+        Pointers pointers = Pointers.read(Utils.join(dir, "pointers"));
+        if (!Objects.equals(pointers.getCommitId(branch), oldId)) {
+            return "Please pull down remote changes before pushing.";
+        }
+        pointers.setPointer(branch, newId);
+        return null;
+    }
+
+    /** Write a frame refusing a request with MESSAGE to OUT. */
+    private static void refuse(DataOutputStream out, String message)
+        throws IOException {
+        Protocol.writeFrame(out, new Codec.Encoder()
+                            .writeByte(Protocol.ERROR).writeString(message));
+        out.flush();
+    }
+
+    /** The directory whose repositories I serve. */
+    private final File _root;
+}
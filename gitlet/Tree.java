@@ -0,0 +1,306 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/** A tree: the contents of one directory of a commit's snapshot, as a
+ *  list of entries, each naming either a blob (a tracked file) or another
+ *  tree (a subdirectory).  Trees are stored as objects named by the hash
+ *  of their stored form, so a directory that is the same in two commits
+ *  is stored once and has the same id in both, and comparing two
+ *  snapshots need never look inside a subtree whose id did not change.
+ *
+ *  The stored form of a tree is a format version byte, the length in
+ *  bytes of the ids it contains, and the number of entries, followed by
+ *  each entry's kind byte, name and id, in name order, in the encoding
+ *  of Codec.  Paths of tracked files are separated by '/'.
+ *  @author Stephen Ip
+ */
+class Tree {
+
+    /** Version of the stored form of trees. */
+    private static final int VERSION = 1;
+
+    /** Kind of an entry that names a blob. */
+    private static final int FILE = 0;
+
+    /** Kind of an entry that names a tree. */
+    private static final int DIRECTORY = 1;
+
+    /** A tree with the given ENTRIES. */
+    private Tree(TreeMap<String, Entry> entries) {
+        _entries = entries;
+    }
+
+    /** Return the tree named ID in STORE, or an empty tree if ID is null.
+     *  Trees are immutable, so each one is read at most once per
+     *  store. */
+    static Tree load(ObjectStore store, String id) {
+        if (id == null) {
+            return new Tree(new TreeMap<>());
+        }
+        Map<String, Tree> loaded =
+            LOADED.computeIfAbsent(store, s -> new ConcurrentHashMap<>());
+        Tree tree = loaded.get(id);
+        if (tree == null) {
+            tree = decode(id, store.read(ObjectStore.TREE, id));
+            loaded.put(id, tree);
+        }
+        return tree;
+    }
+
+    /** Forget the trees read from STORE. */
+    static void forget(ObjectStore store) {
+        LOADED.remove(store);
+    }
+
+    /** Return the id of the tree that results from applying CHANGES to
+     *  the tree named ROOTID in STORE (an empty tree if ROOTID is null),
+     *  writing any new trees to STORE.  CHANGES maps paths to the blobs
+     *  they now contain, or to null for paths that are removed.  Only the
+     *  trees along changed paths are rebuilt; directories left empty are
+     *  dropped.  Directories are updated before files, so that a file may
+     *  replace a directory of the same name, or the reverse. */
+    static String update(ObjectStore store, String rootId,
+                         Map<String, String> changes) {
+        TreeMap<String, Entry> entries =
+            new TreeMap<>(load(store, rootId)._entries);
+        TreeMap<String, String> here = new TreeMap<>();
+        TreeMap<String, TreeMap<String, String>> below = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                here.put(path, change.getValue());
+            } else {
+                below.computeIfAbsent(path.substring(0, slash),
+                                      k -> new TreeMap<>())
+                    .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> dir
+                : below.entrySet()) {
+            Entry old = entries.get(dir.getKey());
+            boolean isDir = old != null && old._kind == DIRECTORY;
+            String newId = update(store, isDir ? old._id : null,
+                                  dir.getValue());
+            if (!load(store, newId)._entries.isEmpty()) {
+                entries.put(dir.getKey(), new Entry(DIRECTORY, newId));
+            } else if (isDir) {
+                entries.remove(dir.getKey());
+            }
+        }
+        for (Map.Entry<String, String> file : here.entrySet()) {
+            Entry old = entries.get(file.getKey());
+            if (file.getValue() != null) {
+                entries.put(file.getKey(), new Entry(FILE, file.getValue()));
+            } else if (old != null && old._kind == FILE) {
+                entries.remove(file.getKey());
+            }
+        }
+        byte[] contents = new Tree(entries).encode(store.idLength());
+        String id = store.hash(contents);
+        store.write(ObjectStore.TREE, id, contents);
+        return id;
+    }
+
+    /** Return a mapping of the path of every file in the tree named ID in
+     *  STORE to its blob. */
+    static HashMap<String, String> files(ObjectStore store, String id) {
+        HashMap<String, String> result = new HashMap<>();
+        addFiles(store, id, "", result);
+        return result;
+    }
+
+    /** Return the blob of the file at PATH in the tree named ID in STORE,
+     *  or null if there is no such file.  Only the trees along PATH are
+     *  read. */
+    static String find(ObjectStore store, String id, String path) {
+        Tree tree = load(store, id);
+        int slash = path.indexOf('/');
+        while (slash >= 0) {
+            Entry dir = tree._entries.get(path.substring(0, slash));
+            if (dir == null || dir._kind != DIRECTORY) {
+                return null;
+            }
+            tree = load(store, dir._id);
+            path = path.substring(slash + 1);
+            slash = path.indexOf('/');
+        }
+        Entry file = tree._entries.get(path);
+        return file == null || file._kind != FILE ? null : file._id;
+    }
+
+    /** Return the paths whose blobs differ between the trees named ID1
+     *  and ID2 in STORE (either of which may be null, meaning empty),
+     *  mapped to pairs of their blobs in ID1 and ID2, null where the path
+     *  is absent.  Subtrees with the same id in both are skipped. */
+    static TreeMap<String, String[]> diff(ObjectStore store, String id1,
+                                          String id2) {
+        TreeMap<String, String[]> result = new TreeMap<>();
+        diff(store, id1, id2, "", result);
+        return result;
+    }
+
+    /** Return true iff STORE holds every blob and tree that the tree
+     *  named ID in STORE names. */
+    static boolean complete(ObjectStore store, String id) {
+        for (Entry entry : load(store, id)._entries.values()) {
+            byte type = entry._kind == DIRECTORY ? ObjectStore.TREE
+                : ObjectStore.BLOB;
+            if (!store.contains(type, entry._id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Call VISIT with the type and id of each tree and blob at or below
+     *  the tree named ID in STORE, visiting each tree after everything
+     *  below it.  A tree is read, and it and its entries visited, only if
+     *  ENTER returns true for its id. */
+    static void walk(ObjectStore store, String id, Predicate<String> enter,
+                     BiConsumer<Byte, String> visit) {
+        if (!enter.test(id)) {
+            return;
+        }
+        for (Entry entry : load(store, id)._entries.values()) {
+            if (entry._kind == DIRECTORY) {
+                walk(store, entry._id, enter, visit);
+            } else {
+                visit.accept(ObjectStore.BLOB, entry._id);
+            }
+        }
+        visit.accept(ObjectStore.TREE, id);
+    }
+
+    /** Call VISIT with the type and id of each tree and blob at or below
+     *  the tree named ID in STORE that is not at the same path at or
+     *  below the tree named BASEID (an empty tree if BASEID is null),
+     *  visiting each tree after everything below it.  Subtrees that are
+     *  the same in both are not read. */
+    static void walkChanges(ObjectStore store, String id, String baseId,
+                            BiConsumer<Byte, String> visit) {
+        if (id.equals(baseId)) {
+            return;
+        }
+        TreeMap<String, Entry> base = load(store, baseId)._entries;
+        for (Map.Entry<String, Entry> entry
+                : load(store, id)._entries.entrySet()) {
+            Entry e = entry.getValue(), old = base.get(entry.getKey());
+            if (old != null && old._id.equals(e._id)) {
+                continue;
+            }
+            if (e._kind == DIRECTORY) {
+                walkChanges(store, e._id, old != null
+                            && old._kind == DIRECTORY ? old._id : null, visit);
+            } else {
+                visit.accept(ObjectStore.BLOB, e._id);
+            }
+        }
+        visit.accept(ObjectStore.TREE, id);
+    }
+
+    /** Add the files in the tree named ID in STORE to RESULT, with PREFIX
+     *  prepended to their paths. */
+    private static void addFiles(ObjectStore store, String id, String prefix,
+                                 Map<String, String> result) {
+        for (Map.Entry<String, Entry> entry
+                : load(store, id)._entries.entrySet()) {
+            Entry e = entry.getValue();
+            if (e._kind == FILE) {
+                result.put(prefix + entry.getKey(), e._id);
+            } else {
+                addFiles(store, e._id, prefix + entry.getKey() + "/", result);
+            }
+        }
+    }
+
+    /** Add to RESULT the differences between the trees ID1 and ID2 in
+     *  STORE, with PREFIX prepended to their paths. */
+    private static void diff(ObjectStore store, String id1, String id2,
+                             String prefix, Map<String, String[]> result) {
+        if (id1 != null && id1.equals(id2)) {
+            return;
+        }
+        TreeMap<String, Entry> entries1 = load(store, id1)._entries,
+            entries2 = load(store, id2)._entries;
+        TreeMap<String, Entry> names = new TreeMap<>(entries1);
+        names.putAll(entries2);
+        for (String name : names.keySet()) {
+            Entry e1 = entries1.get(name), e2 = entries2.get(name);
+            String path = prefix + name;
+            String blob1 = e1 != null && e1._kind == FILE ? e1._id : null,
+                blob2 = e2 != null && e2._kind == FILE ? e2._id : null;
+            if (blob1 != null || blob2 != null) {
+                if (blob1 == null || !blob1.equals(blob2)) {
+                    result.put(path, new String[] {blob1, blob2});
+                }
+            }
+            String tree1 =
+                e1 != null && e1._kind == DIRECTORY ? e1._id : null;
+            String tree2 =
+                e2 != null && e2._kind == DIRECTORY ? e2._id : null;
+            if (tree1 != null || tree2 != null) {
+                diff(store, tree1, tree2, path + "/", result);
+            }
+        }
+    }
+
+    /** Return my stored form, in which ids are IDLENGTH bytes long. */
+    private byte[] encode(int idLength) {
+        Codec.Encoder out = new Codec.Encoder();
+        out.writeByte(VERSION).writeByte(idLength)
+            .writeVarint(_entries.size());
+        for (Map.Entry<String, Entry> entry : _entries.entrySet()) {
+            out.writeByte(entry.getValue()._kind)
+                .writeString(entry.getKey())
+                .writeId(entry.getValue()._id);
+        }
+        return out.toByteArray();
+    }
+
+    /** Return the tree named ID whose stored form is CONTENTS. */
+    private static Tree decode(String id, byte[] contents) {
+        Codec.Decoder in = new Codec.Decoder(contents);
+        if (in.readByte() != VERSION) {
+            throw new IllegalArgumentException("unknown tree format " + id);
+        }
+        int idLength = in.readByte();
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        for (int count = in.readInt(); count > 0; count -= 1) {
+            int kind = in.readByte();
+            String name = in.readString();
+            entries.put(name, new Entry(kind, in.readId(idLength)));
+        }
+        if (!in.atEnd()) {
+            throw new IllegalArgumentException("corrupt tree " + id);
+        }
+        return new Tree(entries);
+    }
+
+    /** One entry of a tree. */
+    private static class Entry {
+        /** An entry of kind KIND naming the object ID. */
+        Entry(int kind, String id) {
+            _kind = kind;
+            _id = id;
+        }
+
+        /** FILE or DIRECTORY. */
+        private final int _kind;
+        /** The id of the blob or tree named. */
+        private final String _id;
+    }
+
+    /** Trees already read, by store and id. */
+    private static final Map<ObjectStore, Map<String, Tree>> LOADED =
+        new ConcurrentHashMap<>();
+
+    /** My entries, by name. */
+    private final TreeMap<String, Entry> _entries;
+}
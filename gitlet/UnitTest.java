@@ -4,8 +4,22 @@ import ucb.junit.textui;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
-/** The suite of all JUnit tests for the gitlet package.
- *  @author
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/** The suite of all JUnit tests for the gitlet package.  Repositories
+ *  are made in temporary directories by running gitlet in processes of
+ *  their own, since Main works on the current directory.
+ *  @author Stephen Ip
  */
 public class UnitTest {
 
@@ -15,11 +29,290 @@ public class UnitTest {
         System.exit(textui.runClasses(UnitTest.class));
     }
 
-    /** A dummy test to avoid complaint. */
+    /** Fetch from, push to and be refused by a Server on a Unix domain
+     *  socket, all through Client. */
     @Test
-    public void placeholderTest() {
+    public void serveFetchAndPush() throws Exception {
+        File root = tempDir();
+        File remote = repository(new File(root, "r"), "a.txt", "one");
+        File local = new File(root, "l");
+        copyTree(remote.toPath(), local.toPath());
+        File socket = new File(root, "sock");
+        Thread server = new Thread(() -> {
+            try {
+                new Server(root).serve(socket.getPath());
+            } catch (GitletException excp) {
+                return;
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        while (!socket.exists()) {
+            Thread.sleep(10);
+        }
+        String url = "gitlet+unix://" + socket + ":r";
+        ObjectStore localStore = ObjectStore.of(gitletDir(local));
+        String start = headOf(remote);
+
+        gitlet(remote, "add-file", "b.txt", "two");
+        String fetched = headOf(remote);
+        try (Client client = new Client(url, localStore.idLength())) {
+            assertEquals(fetched, client.branches().get("master"));
+            client.fetch(fetched, List.of(start), localStore, null);
+        }
+        assertTrue(localStore.contains(ObjectStore.COMMIT, fetched));
+        String blob = Tree.find(localStore,
+                Commit.load(localStore, fetched).getTreeId(), "b.txt");
+        assertEquals("two", new String(localStore.read(ObjectStore.BLOB,
+                blob), StandardCharsets.UTF_8));
+
+        gitlet(local, "reset", fetched);
+        gitlet(local, "add-file", "c.txt", "three");
+        String pushed = headOf(local);
+        push(url, localStore, local, fetched, pushed);
+        assertEquals(pushed, headOf(remote));
+
+        try {
+            push(url, localStore, local, fetched, pushed);
+            fail("stale push accepted");
+        } catch (GitletException excp) {
+            assertEquals("Please pull down remote changes before pushing.",
+                         excp.getMessage());
+        }
+        ObjectStore.forget(gitletDir(local));
     }
 
-}
+    /** Objects received from another repository are checked against
+     *  their ids. */
+    @Test
+    public void receiveChecksIds() throws IOException {
+        File repo = repository(new File(tempDir(), "r"), "a.txt", "one");
+        ObjectStore store = ObjectStore.open(gitletDir(repo));
+        byte[] stored = {0, 'b', 'a', 'd'};
+        String claimed = store.hash("good".getBytes(StandardCharsets.UTF_8));
+        try {
+            store.receive(ObjectStore.BLOB, claimed,
+                          new ByteArrayInputStream(stored));
+            fail("mismatched object accepted");
+        } catch (IllegalArgumentException excp) {
+            assertFalse(store.contains(ObjectStore.BLOB, claimed));
+        }
+        String actual = store.hash("bad".getBytes(StandardCharsets.UTF_8));
+        store.receive(ObjectStore.BLOB, actual,
+                      new ByteArrayInputStream(stored));
+        assertTrue(store.contains(ObjectStore.BLOB, actual));
+        store.close();
+    }
+
+    /** Commands forwarded to a daemon print what they print when run
+     *  alone, and see changes made by commands run through it and, in a
+     *  remote repository, by commands run there. */
+    @Test
+    public void daemonMatchesOneShot() throws Exception {
+        File root = tempDir();
+        File repo = repository(new File(root, "r"), "a.txt", "one");
+        File remote = repository(new File(root, "b"), "d.txt", "four");
+        gitlet(repo, "branch", "other");
+        gitlet(repo, "add-file", "b.txt", "two");
+        String[][] commands = {
+            {"status"}, {"log"}, {"global-log"}, {"find", "two"},
+            {"checkout", "nosuch"}, {"merge", "other"}, {"rm", "nope"},
+            {"frobnicate"},
+        };
+        ArrayList<String> alone = new ArrayList<>();
+        for (String[] command : commands) {
+            alone.add(gitlet(repo, command));
+        }
+
+        File socket = new File(gitletDir(repo), "daemon.sock");
+        String log, fetched;
+        Process daemon = start(repo, "daemon");
+        try {
+            while (Daemon.forward(socket, new String[] {"daemon", "ping"})
+                   < 0) {
+                Thread.sleep(20);
+            }
+            for (int i = 0; i < commands.length; i += 1) {
+                assertEquals(String.join(" ", commands[i]), alone.get(i),
+                             forward(socket, commands[i]));
+            }
+            Files.writeString(new File(repo, "c.txt").toPath(), "three");
+            forward(socket, "add", "c.txt");
+            forward(socket, "commit", "three");
+            log = forward(socket, "log");
+
+            forward(socket, "add-remote", "b", gitletDir(remote).getPath());
+            forward(socket, "fetch", "b", "master");
+            gitlet(remote, "repack");
+            gitlet(remote, "add-file", "e.txt", "five");
+            gitlet(remote, "repack");
+            assertEquals("", forward(socket, "fetch", "b", "master"));
+            fetched = forward(socket, "find", "five");
+            forward(socket, "daemon", "stop");
+            daemon.waitFor();
+        } finally {
+            daemon.destroy();
+        }
+        assertFalse(socket.exists());
+        assertEquals(gitlet(repo, "log"), log);
+        assertTrue(log.endsWith(alone.get(1)));
+        assertEquals(headOf(remote) + "\n", fetched);
+    }
+
+    /** A repository made by the first version of gitlet, kept in
+     *  testing/legacy, is upgraded when first used, keeping its history,
+     *  branches and staged files. */
+    @Test
+    public void upgradesFirstVersion() throws Exception {
+        File repo = new File(tempDir(), "r");
+        copyTree(Path.of(UnitTest.class.getResource("/testing/legacy")
+                         .toURI()), repo.toPath());
+        assertEquals(String.join("\n", "=== Branches ===", "*master",
+                                 "other", "", "=== Staged Files ===",
+                                 "a.txt", "", "=== Removed Files ===",
+                                 "b.txt", "",
+                                 "=== Modifications Not Staged For Commit ===",
+                                 "", "=== Untracked Files ===", "", ""),
+                     gitlet(repo, "status"));
+        assertFalse(new File(gitletDir(repo), "staging_area").exists());
+        assertFalse(Utils.join(gitletDir(repo), "commits", "pointers")
+                    .exists());
+        String[] log = gitlet(repo, "log").split("\n");
+        ArrayList<String> messages = new ArrayList<>();
+        for (int i = 1; i < log.length; i += 1) {
+            if (log[i - 1].startsWith("Date: ")) {
+                messages.add(log[i]);
+            }
+        }
+        assertEquals(List.of("Merged other into master.", "two", "one",
+                             "initial commit"), messages);
+
+        gitlet(repo, "commit", "four");
+        gitlet(repo, "checkout", "other");
+        assertEquals("one\n", Files.readString(repo.toPath()
+                                               .resolve("a.txt")));
+        assertEquals("three\n", Files.readString(repo.toPath()
+                                                 .resolve("c.txt")));
+        assertFalse(new File(repo, "b.txt").exists());
+        gitlet(repo, "checkout", "master");
+        assertEquals("four\n", Files.readString(repo.toPath()
+                                                .resolve("a.txt")));
+        assertFalse(new File(repo, "b.txt").exists());
+    }
+
+    /** Push PUSHED to the master branch of the repository at URL, which
+     *  is at OLD, sending the objects of the local repository at LOCAL,
+     *  whose store is STORE. */
+    private static void push(String url, ObjectStore store, File local,
+                             String old, String pushed) {
+        CommitGraph graph = CommitGraph.read(gitletDir(local), store);
+        Reachability walker = new Reachability(store, graph);
+        try (Client client = new Client(url, store.idLength())) {
+            client.push("master", old, pushed, store,
+                        walker.reachable(pushed));
+        }
+    }
 
+    /** Return the output of the command ARGS forwarded to the daemon on
+     *  SOCKET. */
+    private static String forward(File socket, String... args) {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bytes, true));
+        try {
+            assertEquals(0, Daemon.forward(socket, args));
+        } finally {
+            System.setOut(stdout);
+        }
+        return bytes.toString();
+    }
+
+    /** Return the id of the head commit of the repository in DIR. */
+    private static String headOf(File dir) {
+        return Pointers.read(new File(gitletDir(dir), "pointers"))
+            .getHeadCommitId();
+    }
+
+    /** Return the .gitlet directory of the repository in DIR. */
+    private static File gitletDir(File dir) {
+        return new File(dir, ".gitlet");
+    }
+
+    /** Return a new repository in DIR, with one commit, MESSAGE, adding
+     *  the file NAME holding MESSAGE. */
+    private static File repository(File dir, String name, String message)
+        throws IOException {
+        dir.mkdirs();
+        gitlet(dir, "init");
+        gitlet(dir, "add-file", name, message);
+        return dir;
+    }
+
+    /** Run gitlet with ARGS in DIR and return its standard output.  As a
+     *  convenience, "add-file NAME TEXT" writes TEXT to the file NAME,
+     *  then adds and commits it with the message TEXT. */
+    private static String gitlet(File dir, String... args) {
+        try {
+            if (args[0].equals("add-file")) {
+                Files.writeString(new File(dir, args[1]).toPath(), args[2]);
+                gitlet(dir, "add", args[1]);
+                return gitlet(dir, "commit", args[2]);
+            }
+            Process process = start(dir, args);
+            String output = new String(process.getInputStream()
+                                       .readAllBytes());
+            process.waitFor();
+            return output;
+        } catch (IOException | InterruptedException excp) {
+            throw new AssertionError(excp);
+        }
+    }
 
+    /** Start gitlet with ARGS in DIR, in a process of its own whose
+     *  standard error is discarded. */
+    private static Process start(File dir, String... args)
+        throws IOException {
+        ArrayList<String> command = new ArrayList<>(List.of(
+            new File(System.getProperty("java.home"), "bin/java").getPath(),
+            "-cp", CLASSPATH, "gitlet.Main"));
+        command.addAll(List.of(args));
+        return new ProcessBuilder(command).directory(dir)
+            .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+    }
+
+    /** Return a new, empty temporary directory, deleted on exit. */
+    private static File tempDir() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try (Stream<Path> paths = Files.walk(dir.toPath())) {
+                paths.sorted((a, b) -> b.compareTo(a))
+                    .forEach(path -> path.toFile().delete());
+            } catch (IOException excp) {
+                return;
+            }
+        }));
+        return dir;
+    }
+
+    /** Copy the directory FROM and everything in it to TO. */
+    private static void copyTree(Path from, Path to) throws IOException {
+        try (Stream<Path> paths = Files.walk(from)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Files.copy(path, to.resolve(from.relativize(path)));
+            }
+        }
+    }
+
+    /** The class path of this process, made absolute for processes
+     *  started in other directories. */
+    private static final String CLASSPATH;
+
+    static {
+        ArrayList<String> entries = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path")
+                 .split(File.pathSeparator)) {
+            entries.add(new File(entry).getAbsolutePath());
+        }
+        CLASSPATH = String.join(File.pathSeparator, entries);
+    }
+}
@@ -3,22 +3,32 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Formatter;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /** Assorted utilities.
@@ -26,33 +36,21 @@ import java.util.List;
  */
 class Utils {
 
-    /* SHA-1 HASH VALUES. */
+    /* HASH VALUES. */
 
     /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
     static final int UID_LENGTH = 40;
 
+    /** Name of the SHA-1 algorithm. */
+    static final String SHA1 = "SHA-1";
+
+    /** Name of the SHA-256 algorithm. */
+    static final String SHA256 = "SHA-256";
+
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
-        }
+        return hash(SHA1, vals);
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -61,6 +59,124 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the hash under the digest algorithm ALGORITHM of the
+     *  concatenation of VALS, which may be any mixture of byte arrays and
+     *  Strings. */
+    static String hash(String algorithm, Object... vals) {
+        MessageDigest md = digest(algorithm);
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to hash");
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    /** Returns the hash under ALGORITHM of the bytes remaining in IN,
+     *  which is read to its end but not closed.  Uses constant memory,
+     *  whatever the length of IN. */
+    static String hash(String algorithm, InputStream in) {
+        MessageDigest md = digest(algorithm);
+        byte[] buf = new byte[HASH_BUFFER_SIZE];
+        try {
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return toHex(md.digest());
+    }
+
+    /** Returns the hash under ALGORITHM of the contents of FILE, read
+     *  through a FileChannel in constant memory, so that FILE may be of
+     *  any size. */
+    static String hash(String algorithm, File file) {
+        MessageDigest md = digest(algorithm);
+        ByteBuffer buf = HASH_BUFFER.get();
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            buf.clear();
+            while (channel.read(buf) >= 0) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return toHex(md.digest());
+    }
+
+    /** Return this thread's digest for ALGORITHM, reset and ready for
+     *  use.  Throws IllegalArgumentException if ALGORITHM is not
+     *  supported. */
+    static MessageDigest digest(String algorithm) {
+        HashMap<String, MessageDigest> digests = DIGESTS.get();
+        MessageDigest md = digests.get(algorithm);
+        if (md == null) {
+            try {
+                md = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException("System does not support "
+                                                   + algorithm);
+            }
+            digests.put(algorithm, md);
+        } else {
+            md.reset();
+        }
+        return md;
+    }
+
+    /** Size of the buffers used to hash streams and files. */
+    private static final int HASH_BUFFER_SIZE = 1 << 16;
+
+    /** Each thread's digests, by algorithm name.  MessageDigest.getInstance
+     *  is costly, and digests may not be shared between threads. */
+    private static final ThreadLocal<HashMap<String, MessageDigest>>
+        DIGESTS = ThreadLocal.withInitial(HashMap::new);
+
+    /** Each thread's buffer for hashing files. */
+    private static final ThreadLocal<ByteBuffer> HASH_BUFFER =
+        ThreadLocal.withInitial(() ->
+                                ByteBuffer.allocateDirect(HASH_BUFFER_SIZE));
+
+    /** Return the hexadecimal numeral for the bytes in RAW, two digits
+     *  per byte. */
+    static String toHex(byte[] raw) {
+        char[] digits = new char[2 * raw.length];
+        for (int i = 0; i < raw.length; i += 1) {
+            digits[2 * i] = HEX_DIGITS[(raw[i] >> 4) & 0xf];
+            digits[2 * i + 1] = HEX_DIGITS[raw[i] & 0xf];
+        }
+        return new String(digits);
+    }
+
+    /** Return the bytes denoted by the hexadecimal numeral HEX, which has
+     *  two digits per byte.  Throws IllegalArgumentException if HEX is
+     *  not such a numeral. */
+    static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("odd-length hex numeral");
+        }
+        byte[] raw = new byte[hex.length() / 2];
+        for (int i = 0; i < raw.length; i += 1) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("bad hex numeral");
+            }
+            raw[i] = (byte) ((hi << 4) | lo);
+        }
+        return raw;
+    }
+
+    /** Lower-case hexadecimal digits. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -134,6 +250,39 @@ class Utils {
         }
     }
 
+    /** Return a new, empty temporary file in the directory of FILE, to be
+     *  written and then renamed to FILE.  Its name is FILE's, a unique
+     *  part and ".lock", so that processes or threads writing FILE at
+     *  the same time never write the same temporary file.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static File tempFileFor(File file) {
+        try {
+            return File.createTempFile(file.getName() + ".", ".lock",
+                                       file.getAbsoluteFile()
+                                       .getParentFile());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write the result of concatenating the bytes in CONTENTS to FILE, as
+     *  for writeContents, but by writing a temporary file next to FILE and
+     *  renaming it into place, so that readers never see a partially
+     *  written FILE.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static void writeContentsAtomic(File file, Object... contents) {
+        File temp = tempFileFor(file);
+        writeContents(temp, contents);
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
@@ -150,6 +299,23 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
@@ -186,6 +352,56 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+    /* SHARDED DIRECTORIES */
+
+    /** Length of the name of the subdirectory that holds an object in a
+     *  sharded directory: the first SHARD_LENGTH characters of the
+     *  object's name. */
+    static final int SHARD_LENGTH = 2;
+
+    /** Return the file holding the object named ID in the sharded
+     *  directory DIR: the file named by the rest of ID in the
+     *  subdirectory named by the first SHARD_LENGTH characters of ID.
+     *  Throws IllegalArgumentException if ID is too short. */
+    static File shardedFile(File dir, String id) {
+        if (id.length() <= SHARD_LENGTH) {
+            throw new IllegalArgumentException("object name too short");
+        }
+        return join(dir, id.substring(0, SHARD_LENGTH),
+                    id.substring(SHARD_LENGTH));
+    }
+
+    /** Returns the names of all objects in the sharded directory DIR that
+     *  start with PREFIX, in lexicographic order.  Only the subdirectories
+     *  that can hold such names are read.  Files whose names contain a
+     *  '.' (temporary files) are skipped.  Returns an empty list if DIR
+     *  does not denote a directory. */
+    static List<String> shardedNamesIn(File dir, String prefix) {
+        ArrayList<String> result = new ArrayList<>();
+        String[] shards = dir.list();
+        if (shards == null) {
+            return result;
+        }
+        Arrays.sort(shards);
+        for (String shard : shards) {
+            if (shard.length() != SHARD_LENGTH
+                || !(shard.startsWith(prefix) || prefix.startsWith(shard))) {
+                continue;
+            }
+            List<String> names = plainFilenamesIn(join(dir, shard));
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                String id = shard + name;
+                if (name.indexOf('.') < 0 && id.startsWith(prefix)) {
+                    result.add(id);
+                }
+            }
+        }
+        return result;
+    }
+
     /* OTHER FILE UTILITIES */
 
     /** Return the concatentation of FIRST and OTHERS into a File designator,
@@ -220,6 +436,51 @@ class Utils {
 
 
 
+    /* PARALLEL EXECUTION */
+
+    /** Largest number of threads used to run tasks in parallel. */
+    private static final int MAX_TASK_THREADS = 16;
+
+    /** Run TASKS, in parallel if there are several.  Throws the first
+     *  exception thrown by a task, after all have finished. */
+    static void runInParallel(List<Runnable> tasks) {
+        if (tasks.size() <= 1) {
+            tasks.forEach(Runnable::run);
+            return;
+        }
+        int threads = Math.min(tasks.size(), Math.min(MAX_TASK_THREADS,
+                2 * Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        RuntimeException failure = null;
+        try {
+            ArrayList<Future<?>> results = new ArrayList<>();
+            for (Runnable task : tasks) {
+                results.add(pool.submit(task));
+            }
+            for (Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException excp) {
+                    if (failure == null) {
+                        failure = excp.getCause() instanceof RuntimeException
+                            ? (RuntimeException) excp.getCause()
+                            : new GitletException(excp.getCause().toString());
+                    }
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    throw new GitletException("Interrupted.");
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+
+
     /* MESSAGES AND ERROR REPORTING */
 
     /** Return a GitletException whose message is composed from MSG and ARGS as